@@ -0,0 +1,56 @@
+package Benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Account;
+import Service.AccountService;
+
+/**
+ * AccountService.loginAccount against a seeded in-memory H2 database, for both valid and invalid credentials. With
+ * few accounts most valid logins are served by the login cache, with many they pay for the password hash; wrong
+ * passwords always do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkDatabase.IN_MEMORY_DB)
+public class AccountServiceBenchmark {
+    @Param({"1000", "100000"})
+    public int accounts;
+
+    private AccountService accountService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkDatabase.seed(accounts, 0);
+        accountService = new AccountService();
+    }
+
+    @Benchmark
+    public Account loginAccount() {
+        int user = 1 + ThreadLocalRandom.current().nextInt(accounts);
+        return accountService.loginAccount(new Account("benchuser" + user, "password"));
+    }
+
+    @Benchmark
+    public Account loginAccountWrongPassword() {
+        int user = 1 + ThreadLocalRandom.current().nextInt(accounts);
+        return accountService.loginAccount(new Account("benchuser" + user, "wrong password"));
+    }
+}
@@ -0,0 +1,88 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+
+import Util.ConnectionUtil;
+import Util.PasswordHasher;
+
+/**
+ * Seeds the benchmark database. Benchmarks fork with -Ddb.url pointing at a private in-memory H2 database, so this
+ * never touches ./h2/db.
+ */
+public class BenchmarkDatabase {
+    /**
+     * JVM arguments every benchmark fork uses, so ConnectionUtil opens an in-memory database.
+     */
+    public static final String IN_MEMORY_DB = "-Ddb.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1";
+
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Number of distinct words messages are written with, see word().
+     */
+    public static final int VOCABULARY_SIZE = 5000;
+    private static final String[] SYLLABLES = {"ka", "lo", "mi", "ne", "ru", "sa", "ti", "vo", "ze", "pa", "do", "gu", "he", "ji", "wa", "yo"};
+
+    /**
+     * Recreates the tables from SocialMedia.sql and adds accounts benchuser1..benchuserN (password "password", all
+     * sharing one real PBKDF2 hash so seeding doesn't pay the hash cost per account) and
+     * messages spread round robin over those accounts with increasing time_posted_epoch. Message i reads
+     * "benchmark message number i" followed by a few words from the vocabulary, low numbered words far more often
+     * than high numbered ones. The script's own test account and message are kept, so account_id and message_id 1
+     * always exist.
+     */
+    public static void seed(int accounts, int messages) {
+        ConnectionUtil.resetTestDatabase();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            connection.setAutoCommit(false);
+            String passwordHash = new PasswordHasher().hash("password");
+            try (PreparedStatement ps = connection.prepareStatement("INSERT INTO account (username, password) VALUES (?, ?);")) {
+                for(int i = 1; i <= accounts; i++) {
+                    ps.setString(1, "benchuser" + i);
+                    ps.setString(2, passwordHash);
+                    ps.addBatch();
+                    if(i % BATCH_SIZE == 0) ps.executeBatch();
+                }
+                ps.executeBatch();
+            }
+            Random random = new Random(42);
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);")) {
+                for(int i = 1; i <= messages; i++) {
+                    //account_id 1 is the script's test account, benchuser accounts start at 2
+                    ps.setInt(1, 2 + (i % Math.max(accounts, 1)));
+                    StringBuilder text = new StringBuilder("benchmark message number ").append(i);
+                    for(int w = 0; w < 6; w++) {
+                        //cubing a uniform draw skews it towards 0, like word frequencies in real text
+                        double draw = random.nextDouble();
+                        text.append(' ').append(word((int) (draw * draw * draw * VOCABULARY_SIZE)));
+                    }
+                    ps.setString(2, text.toString());
+                    ps.setLong(3, 1669947792L + i);
+                    ps.addBatch();
+                    if(i % BATCH_SIZE == 0) ps.executeBatch();
+                }
+                ps.executeBatch();
+            }
+            connection.commit();
+        } catch(SQLException e) {
+            throw new IllegalStateException("Could not seed benchmark database", e);
+        }
+    }
+
+    /**
+     * @return the vocabulary word numbered n, from 0 (the most common) to VOCABULARY_SIZE - 1 (the rarest)
+     */
+    public static String word(int n) {
+        StringBuilder word = new StringBuilder();
+        //n in base 16, one syllable per digit, with at least two syllables
+        do {
+            word.append(SYLLABLES[n % SYLLABLES.length]);
+            n /= SYLLABLES.length;
+        } while(n > 0 || word.length() < 4);
+        return word.toString();
+    }
+}
@@ -0,0 +1,48 @@
+package Benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.Message;
+import Util.JsonUtil;
+
+/**
+ * Parsing a POST /messages body and writing the response, the way the handlers used to (a new ObjectMapper per
+ * request) against the shared JsonUtil readers and writers. Compare gc.alloc.rate.norm between the two.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonMappingBenchmark {
+    private final byte[] body = ("{\"posted_by\":1, \"message_text\": \"hello message\", \"time_posted_epoch\": 1669947792}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public String newMapperPerRequest() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Message message = mapper.readValue(new String(body, StandardCharsets.UTF_8), Message.class);
+        return new ObjectMapper().writeValueAsString(message);
+    }
+
+    @Benchmark
+    public String sharedMapper() throws IOException {
+        Message message = JsonUtil.MESSAGE_READER.readValue(body);
+        return JsonUtil.JAVALIN_MAPPER.toJsonString(message, Message.class);
+    }
+}
@@ -0,0 +1,337 @@
+package Benchmark;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.JsonUtil;
+import Util.ServerThreads;
+import io.javalin.Javalin;
+
+/**
+ * Open-model HTTP load generator for the API started from SocialMediaController.startAPI().
+ *
+ * Requests are issued at a fixed arrival rate regardless of how fast the server answers, and each request's latency
+ * is measured from the time it was scheduled to be sent, not from when it actually went out. A server that stalls
+ * therefore shows up as latency for every request that should have been sent during the stall (no coordinated
+ * omission), instead of simply lowering the request rate.
+ *
+ * mvn -P benchmark compile exec:exec@loadtest -Dloadtest.args="--rate 500 --duration 60"
+ *
+ * Options (defaults in brackets):
+ *   --rate N          requests per second across all operations [200]
+ *   --duration S      measured seconds [30]
+ *   --warmup S        seconds at full rate before measuring [5]
+ *   --accounts N      accounts registered before the run [50]
+ *   --messages N      messages posted before the run [1000]
+ *   --max-in-flight N requests allowed to be outstanding at once [2000]
+ *   --mix op=w,...    weights per operation [register=1,login=5,post=10,getAll=2,getPage=20,getById=30,patch=5,delete=2,byAccount=25]
+ *   --url URL         drive an already running server instead of starting one in process
+ *   --port N          port for the in-process server [8080]
+ *   --threads T       run the in-process server's handlers on platform or virtual threads [platform]
+ *   --hgrm DIR        also write each operation's percentile distribution (.hgrm) to DIR
+ *
+ * The in-process server uses a private in-memory database unless -Ddb.url is given.
+ */
+public class LoadTest {
+    private static final String[] OPERATIONS = {"register", "login", "post", "getAll", "getPage", "getById", "patch", "delete", "byAccount"};
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final String baseUrl;
+    private final Map<String, Integer> mix;
+    private final Map<String, Stats> stats = new LinkedHashMap<>();
+    private final List<Account> accounts = new ArrayList<>();
+    private final AtomicInteger maxMessageId = new AtomicInteger();
+    private final AtomicInteger registered = new AtomicInteger();
+    private final Semaphore inFlight;
+    private volatile boolean recording;
+
+    LoadTest(String baseUrl, Map<String, Integer> mix, int maxInFlight) {
+        this.baseUrl = baseUrl;
+        this.mix = mix;
+        this.inFlight = new Semaphore(maxInFlight);
+        for(String operation : OPERATIONS) stats.put(operation, new Stats());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int rate = Integer.parseInt(options.getOrDefault("rate", "200"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int accountCount = Integer.parseInt(options.getOrDefault("accounts", "50"));
+        int messageCount = Integer.parseInt(options.getOrDefault("messages", "1000"));
+        int maxInFlight = Integer.parseInt(options.getOrDefault("max-in-flight", "2000"));
+        Map<String, Integer> mix = parseMix(options.getOrDefault("mix",
+                "register=1,login=5,post=10,getAll=2,getPage=20,getById=30,patch=5,delete=2,byAccount=25"));
+
+        Javalin app = null;
+        String baseUrl = options.get("url");
+        if(baseUrl == null) {
+            //must be set before ConnectionUtil is first touched
+            if(System.getProperty("db.url") == null) System.setProperty("db.url", "jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1");
+            ConnectionUtil.resetTestDatabase();
+            String threads = options.getOrDefault("threads", "platform");
+            System.setProperty(ServerThreads.VIRTUAL_THREADS_PROPERTY, String.valueOf(threads.equals("virtual")));
+            System.out.println("Server handlers on " + (ServerThreads.useVirtualThreads() ? "virtual" : "platform") + " threads");
+            int port = Integer.parseInt(options.getOrDefault("port", "8080"));
+            app = new SocialMediaController().startAPI().start(port);
+            baseUrl = "http://localhost:" + port;
+        }
+
+        try {
+            LoadTest loadTest = new LoadTest(baseUrl, mix, maxInFlight);
+            loadTest.seed(accountCount, messageCount);
+            System.out.println("Warming up for " + warmup + "s at " + rate + " req/s");
+            loadTest.run(rate, TimeUnit.SECONDS.toNanos(warmup));
+            loadTest.recording = true;
+            System.out.println("Measuring for " + duration + "s at " + rate + " req/s");
+            long start = System.nanoTime();
+            loadTest.run(rate, TimeUnit.SECONDS.toNanos(duration));
+            loadTest.awaitInFlight(maxInFlight);
+            loadTest.report(System.out, (System.nanoTime() - start) / 1e9);
+            if(options.containsKey("hgrm")) loadTest.writeDistributions(options.get("hgrm"));
+            System.out.println(ConnectionUtil.getPool());
+        } finally {
+            if(app != null) app.stop();
+        }
+    }
+
+    //register accounts and post messages so every operation has something to work on
+    private void seed(int accountCount, int messageCount) throws IOException, InterruptedException {
+        System.out.println("Seeding " + accountCount + " accounts and " + messageCount + " messages");
+        //the script's test account
+        accounts.add(new Account(1, "testuser1", "password"));
+        for(int i = 0; i < accountCount; i++) {
+            Account account = new Account("loaduser" + registered.incrementAndGet(), "password");
+            HttpResponse<byte[]> response = client.send(post("/register", JsonUtil.ACCOUNT_WRITER.writeValueAsBytes(account)),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            if(response.statusCode() == 200) accounts.add(JsonUtil.ACCOUNT_READER.readValue(response.body()));
+        }
+        List<CompletableFuture<?>> posts = new ArrayList<>();
+        for(int i = 0; i < messageCount; i++) {
+            posts.add(client.sendAsync(post("/messages", newMessageBody()), HttpResponse.BodyHandlers.ofByteArray())
+                    .thenAccept(this::trackPostedMessage));
+            //keep the seeding burst bounded
+            if(posts.size() == 200) {
+                CompletableFuture.allOf(posts.toArray(new CompletableFuture[0])).join();
+                posts.clear();
+            }
+        }
+        CompletableFuture.allOf(posts.toArray(new CompletableFuture[0])).join();
+        //the script's test message
+        maxMessageId.accumulateAndGet(1, Math::max);
+    }
+
+    //issue requests at a fixed rate for the given time, each tagged with the time it should have been sent
+    private void run(int rate, long durationNanos) {
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+
+        for(long intended = start; intended < end; intended += interval) {
+            long wait = intended - System.nanoTime();
+            if(wait > 0) LockSupport.parkNanos(wait);
+
+            String operation = pick(ThreadLocalRandom.current().nextInt(totalWeight));
+            Stats operationStats = stats.get(operation);
+            long intendedStart = intended;
+            boolean record = recording;
+
+            //a full in-flight window stalls the schedule, which is still charged to latency via intendedStart
+            inFlight.acquireUninterruptibly();
+            long actualStart = System.nanoTime();
+            client.sendAsync(request(operation), HttpResponse.BodyHandlers.ofByteArray())
+                    .whenComplete((response, error) -> {
+                        inFlight.release();
+                        long now = System.nanoTime();
+                        if(record) operationStats.record(now - intendedStart, now - actualStart, response, error);
+                        if(error == null && operation.equals("post")) trackPostedMessage(response);
+                    });
+        }
+    }
+
+    private void awaitInFlight(int maxInFlight) {
+        inFlight.acquireUninterruptibly(maxInFlight);
+        inFlight.release(maxInFlight);
+    }
+
+    private String pick(int roll) {
+        for(Map.Entry<String, Integer> entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if(roll < 0) return entry.getKey();
+        }
+        throw new IllegalStateException("empty mix");
+    }
+
+    private HttpRequest request(String operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            switch(operation) {
+                case "register":
+                    return post("/register", JsonUtil.ACCOUNT_WRITER.writeValueAsBytes(
+                            new Account("loaduser" + registered.incrementAndGet(), "password")));
+                case "login":
+                    Account account = accounts.get(random.nextInt(accounts.size()));
+                    return post("/login", JsonUtil.ACCOUNT_WRITER.writeValueAsBytes(
+                            new Account(account.getUsername(), account.getPassword())));
+                case "post":
+                    return post("/messages", newMessageBody());
+                case "getAll":
+                    return get("/messages");
+                case "getPage":
+                    return get("/messages?after=" + random.nextInt(maxMessageId.get() + 1) + "&limit=50");
+                case "getById":
+                    return get("/messages/" + randomMessageId());
+                case "patch":
+                    return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + randomMessageId()))
+                            .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"patched by load test\"}"))
+                            .header("Content-Type", "application/json")
+                            .build();
+                case "delete":
+                    return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + randomMessageId())).DELETE().build();
+                case "byAccount":
+                    return get("/accounts/" + accounts.get(random.nextInt(accounts.size())).getAccount_id() + "/messages?limit=50");
+                default:
+                    throw new IllegalArgumentException("unknown operation " + operation);
+            }
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] newMessageBody() throws IOException {
+        Account author = accounts.get(ThreadLocalRandom.current().nextInt(accounts.size()));
+        return JsonUtil.MESSAGE_WRITER.writeValueAsBytes(
+                new Message(author.getAccount_id(), "load test message", System.currentTimeMillis() / 1000));
+    }
+
+    private int randomMessageId() {
+        return 1 + ThreadLocalRandom.current().nextInt(Math.max(1, maxMessageId.get()));
+    }
+
+    private void trackPostedMessage(HttpResponse<byte[]> response) {
+        if(response.statusCode() != 200) return;
+        try {
+            Message message = JsonUtil.MESSAGE_READER.readValue(response.body());
+            maxMessageId.accumulateAndGet(message.getMessage_id(), Math::max);
+        } catch(IOException e) {
+            //not a message body, nothing to track
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build();
+    }
+
+    private HttpRequest post(String path, byte[] body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+
+    private void report(PrintStream out, double seconds) {
+        out.printf("%n%-10s %8s %9s %9s %9s %9s %9s %9s %9s %7s %7s%n", "operation", "count", "req/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99", "4xx", "errors");
+        Histogram all = new Histogram(3);
+        long total = 0;
+        long errors = 0;
+        for(Map.Entry<String, Stats> entry : stats.entrySet()) {
+            Stats s = entry.getValue();
+            Histogram latency = s.latency.copy();
+            if(latency.getTotalCount() == 0 && s.errors.sum() == 0) continue;
+            all.add(latency);
+            total += latency.getTotalCount();
+            errors += s.errors.sum();
+            out.printf("%-10s %8d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f %7d %7d%n", entry.getKey(),
+                    latency.getTotalCount(), latency.getTotalCount() / seconds,
+                    millis(latency, 50), millis(latency, 90), millis(latency, 99), millis(latency, 99.9),
+                    latency.getMaxValue() / 1e6, millis(s.serviceTime.copy(), 99), s.clientErrors.sum(), s.errors.sum());
+        }
+        out.printf("%-10s %8d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %9s %7s %7d%n", "all", total, total / seconds,
+                millis(all, 50), millis(all, 90), millis(all, 99), millis(all, 99.9), all.getMaxValue() / 1e6, "", "", errors);
+        out.printf("error rate %.4f%%%n", total == 0 ? 0 : 100.0 * errors / total);
+        out.println("latency is measured from each request's scheduled send time (coordinated omission corrected),");
+        out.println("svc p99 from when it was actually sent. errors = 5xx responses and failed requests.");
+    }
+
+    private void writeDistributions(String directory) throws FileNotFoundException {
+        for(Map.Entry<String, Stats> entry : stats.entrySet()) {
+            if(entry.getValue().latency.getTotalCount() == 0) continue;
+            try (PrintStream out = new PrintStream(directory + "/" + entry.getKey() + ".hgrm")) {
+                entry.getValue().latency.outputPercentileDistribution(out, 1e6);
+            }
+        }
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1e6;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            if(!args[i].startsWith("--")) throw new IllegalArgumentException("expected --option value, got " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for(String entry : mix.split(",")) {
+            String[] parts = entry.split("=");
+            if(!List.of(OPERATIONS).contains(parts[0])) throw new IllegalArgumentException("unknown operation " + parts[0]);
+            int weight = Integer.parseInt(parts[1]);
+            if(weight > 0) weights.put(parts[0], weight);
+        }
+        return weights;
+    }
+
+    /**
+     * Latency histograms (nanoseconds, up to one minute, 3 significant digits) and status counters for one operation.
+     */
+    private static class Stats {
+        final Histogram latency = new ConcurrentHistogram(TimeUnit.MINUTES.toNanos(1), 3);
+        final Histogram serviceTime = new ConcurrentHistogram(TimeUnit.MINUTES.toNanos(1), 3);
+        final LongAdder clientErrors = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        void record(long latencyNanos, long serviceNanos, HttpResponse<byte[]> response, Throwable error) {
+            if(error != null || response.statusCode() >= 500) {
+                errors.increment();
+                return;
+            }
+            if(response.statusCode() >= 400) clientErrors.increment();
+            latency.recordValue(Math.min(latencyNanos, latency.getHighestTrackableValue()));
+            serviceTime.recordValue(Math.min(serviceNanos, serviceTime.getHighestTrackableValue()));
+        }
+    }
+}
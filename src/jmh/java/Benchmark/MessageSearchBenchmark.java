@@ -0,0 +1,134 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Message;
+import Service.AccountService;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+/**
+ * GET /messages/search's index against the LIKE scan it replaces, for a term in a single message (its number), a
+ * term in roughly one message in twenty, a term in every message, and two terms together. Both return the first page
+ * of DEFAULT_PAGE_SIZE messages; the LIKE scan in message_id order since it has nothing to rank by, and matching
+ * substrings rather than whole words.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {BenchmarkDatabase.IN_MEMORY_DB, "-Xmx2g"})
+public class MessageSearchBenchmark {
+    private static final String LIKE_SQL = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message " +
+        "WHERE LOWER(message_text) LIKE ? AND LOWER(message_text) LIKE ? ORDER BY message_id DESC LIMIT ?;";
+
+    @Param({"100000", "1000000"})
+    public int messages;
+
+    @Param({"100"})
+    public int accounts;
+
+    private MessageService messageService;
+    private String mediumTerm;
+    private String twoTerms;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkDatabase.seed(accounts, messages);
+        messageService = new MessageService(new AccountService());
+        //load the index before measuring, searches are turned away until it has read the whole table
+        messageService.getSearchIndex().load();
+        //word 3 is in about one message in twenty, word 0 in nearly one in three
+        mediumTerm = BenchmarkDatabase.word(3);
+        twoTerms = BenchmarkDatabase.word(0) + " " + BenchmarkDatabase.word(3);
+    }
+
+    private String rareTerm() {
+        return String.valueOf(1 + ThreadLocalRandom.current().nextInt(messages));
+    }
+
+    @Benchmark
+    public List<Message> indexRareTerm() {
+        return search(rareTerm());
+    }
+
+    @Benchmark
+    public List<Message> likeRareTerm() {
+        return like(rareTerm(), "");
+    }
+
+    @Benchmark
+    public List<Message> indexMediumTerm() {
+        return search(mediumTerm);
+    }
+
+    @Benchmark
+    public List<Message> likeMediumTerm() {
+        return like(mediumTerm, "");
+    }
+
+    @Benchmark
+    public List<Message> indexCommonTerm() {
+        return search("benchmark");
+    }
+
+    @Benchmark
+    public List<Message> likeCommonTerm() {
+        return like("benchmark", "");
+    }
+
+    @Benchmark
+    public List<Message> indexTwoTerms() {
+        return search(twoTerms);
+    }
+
+    @Benchmark
+    public List<Message> likeTwoTerms() {
+        String[] terms = twoTerms.split(" ");
+        return like(terms[0], terms[1]);
+    }
+
+    private List<Message> search(String query) {
+        return messageService.searchMessages(query, 0, MessageService.DEFAULT_PAGE_SIZE).getMessages();
+    }
+
+    private List<Message> like(String first, String second) {
+        List<Message> found = new ArrayList<>();
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(LIKE_SQL)) {
+            preparedStatement.setString(1, "%" + first + "%");
+            preparedStatement.setString(2, "%" + second + "%");
+            preparedStatement.setInt(3, MessageService.DEFAULT_PAGE_SIZE);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while(rs.next()) {
+                    found.add(new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                        rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+                }
+            }
+        } catch(SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        return found;
+    }
+}
@@ -0,0 +1,74 @@
+package Benchmark;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Message;
+import Service.AccountService;
+import Service.MessageService;
+
+/**
+ * MessageService against a seeded in-memory H2 database. Throughput and SampleTime modes give ops/s and latency
+ * percentiles; run with -prof gc (the profile's default) for allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkDatabase.IN_MEMORY_DB)
+public class MessageServiceBenchmark {
+    @Param({"10000", "100000"})
+    public int messages;
+
+    @Param({"100"})
+    public int accounts;
+
+    private MessageService messageService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkDatabase.seed(accounts, messages);
+        messageService = new MessageService(new AccountService());
+    }
+
+    @Benchmark
+    public Message addMessage() {
+        int posted_by = 2 + ThreadLocalRandom.current().nextInt(accounts);
+        return messageService.addMessage(new Message(posted_by, "benchmark message", 1669947792L));
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return messageService.getMessageById(1 + ThreadLocalRandom.current().nextInt(messages));
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages() {
+        return messageService.getAllMessages();
+    }
+
+    @Benchmark
+    public List<Message> getMessagesPage() {
+        return messageService.getMessagesPage(ThreadLocalRandom.current().nextInt(messages), MessageService.DEFAULT_PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessagesByAccountId() {
+        return messageService.getAllMessagesByAccountId(2 + ThreadLocalRandom.current().nextInt(accounts));
+    }
+}
@@ -1,29 +1,102 @@
 package Controller;
 
+import DAO.DataAccessException;
 import Model.Account;
 import Model.Message;
 import Service.AccountService;
+import Service.EventLogService;
 import Service.MessageService;
+import Service.MessageStreamService;
+import Service.TimelineService;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.CpuExecutor;
+import Util.DbExecutor;
+import Util.EncodedResponseCache;
+import Util.EventStream;
+import Util.InvertedIndex;
+import Util.JsonUtil;
+import Util.LruCache;
+import Util.Metrics;
+import Util.PasswordHasher;
+import Util.VersionTracker;
+import Util.ServerThreads;
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.ServiceUnavailableResponse;
+import io.javalin.http.sse.SseClient;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class SocialMediaController {
+    //response header carrying the message_id (sequence_id, for events) to pass as ?after= to fetch the next page
+    public static final String NEXT_AFTER_HEADER = "X-Next-After";
+    //response headers carrying how many messages matched a search, and the offset to pass to fetch the next page
+    public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+    public static final String NEXT_OFFSET_HEADER = "X-Next-Offset";
+    //response header carrying the message_id to pass as ?before= to fetch the next (older) page of a home timeline
+    public static final String NEXT_BEFORE_HEADER = "X-Next-Before";
+    //request header an EventSource reconnects with, holding the id of the last event it received
+    public static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+    //request attribute holding the message stream subscriber taken for a GET /messages/stream
+    private static final String STREAM_SUBSCRIBER_ATTRIBUTE = "stream.subscriber";
+    //request attribute holding the System.nanoTime() the request arrived at
+    private static final String REQUEST_START_ATTRIBUTE = "metrics.requestStart";
     AccountService accountService;
     MessageService messageService;
+    TimelineService timelineService;
+    EventLogService eventLogService;
+    MessageStreamService messageStreamService;
+    //paths of the routes registered in startAPI, anything else is labelled unmatched in the metrics
+    private final Set<String> routePaths = ConcurrentHashMap.newKeySet();
+    //encoded GET /messages responses, valid until the message table's version changes
+    private final EncodedResponseCache feedCache = new EncodedResponseCache("feed",
+        Long.getLong("feed.cache.maxBytes", 64L << 20), Long.getLong("feed.cache.maxEntryBytes", 16L << 20));
 
     //constructor to initialize service objects
     public SocialMediaController(){
         this.accountService = new AccountService();
-        this.messageService = new MessageService();
+        this.messageService = new MessageService(accountService);
+        this.timelineService = new TimelineService(messageService, accountService);
+        this.eventLogService = new EventLogService();
+        this.messageStreamService = new MessageStreamService(messageService, eventLogService);
     }
 
     //starts Javalin API and sets up endpoint routes
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
+        //shared, pre-warmed Jackson mapper instead of Javalin's default
+        //handlers run on platform threads, or on virtual threads with -Dserver.virtualThreads=true
+        Javalin app = Javalin.create(config -> {
+            config.jsonMapper(JsonUtil.JAVALIN_MAPPER);
+            ServerThreads.configure(config);
+        });
+
+        //time every request, labelled by the route it matched and counted by status
+        app.events(event -> event.handlerAdded(handler -> routePaths.add(handler.getPath())));
+        app.before(context -> context.attribute(REQUEST_START_ATTRIBUTE, System.nanoTime()));
+        app.after(this::recordRequestMetrics);
+        registerMetrics();
+        //read the message table into the search index now, searches are answered 503 until it is done
+        messageService.getSearchIndex().loadInBackground();
+
+        //metrics in Prometheus text format
+        app.get("/metrics", this::getMetricsHandler);
 
         //register new account
         app.post("/register", this::postRegisterHandler);
@@ -37,6 +110,16 @@ public class SocialMediaController {
         //post new message
         app.post("/messages", this::postMessageHandler);
 
+        //post many messages at once, as a JSON array or newline delimited JSON
+        app.post("/messages/bulk", this::postMessagesBulkHandler);
+
+        //search message text, registered before /messages/{message_id} so "search" isn't taken for an id
+        app.get("/messages/search", this::searchMessagesHandler);
+
+        //live stream of message writes as server-sent events, also registered before /messages/{message_id}
+        app.before("/messages/stream", this::subscribeStreamHandler);
+        app.sse("/messages/stream", this::streamMessagesHandler);
+
         //get message by message_id
         app.get("/messages/{message_id}", this::getMessageByIdHandler);
 
@@ -49,58 +132,411 @@ public class SocialMediaController {
         //get message(s) that correspond with account_id
         app.get("accounts/{account_id}/messages", this::getAllMessagesByUserHandler);
 
+        //follow and unfollow another account
+        app.put("/accounts/{account_id}/following/{followee_id}", this::putFollowingHandler);
+        app.delete("/accounts/{account_id}/following/{followee_id}", this::deleteFollowingHandler);
+
+        //home timeline: messages from the accounts account_id follows, newest first
+        app.get("/accounts/{account_id}/timeline", this::getTimelineHandler);
+
+        //the event log of message and account changes, oldest first from a sequence_id
+        app.get("/events", this::getEventsHandler);
+
+        //a read that has to fail rather than answer short, already logged and counted by the DAO, nothing is cached
+        app.exception(DataAccessException.class, (e, context) -> context.status(500));
+
+        //the search index hasn't finished loading, it won't take long
+        app.exception(InvertedIndex.NotLoadedException.class, (e, context) -> {
+            context.header("Retry-After", "1");
+            context.status(503);
+        });
+
+        //the db executor's queue is full, ask the client to back off instead of queueing without bound
+        app.exception(RejectedExecutionException.class, (e, context) -> {
+            context.header("Retry-After", "1");
+            context.status(429);
+        });
+
         return app;
     }
 
+    //records the request's duration and status under the route it matched
+    private void recordRequestMetrics(Context context) {
+        Long start = context.attribute(REQUEST_START_ATTRIBUTE);
+        if(start == null) return;
+        //label with the route pattern, not the raw path, so ids don't each get their own series
+        String path = context.endpointHandlerPath();
+        String route = routePaths.contains(path) ? context.method() + " " + path : "unmatched";
+        Metrics.timer("http_request_duration_seconds", "Time to handle HTTP requests", "route", route).recordSince(start);
+        Metrics.counter("http_requests_total", "HTTP requests handled", "route", route, "status", String.valueOf(context.statusCode())).increment();
+    }
+
+    //gauges read from the pool, executor, caches and services when /metrics is scraped
+    private void registerMetrics() {
+        ConnectionPool pool = ConnectionUtil.getPool();
+        Metrics.gauge("db_pool_max_connections", "Most connections the pool will open", pool::getMaxSize);
+        Metrics.gauge("db_pool_active_connections", "Connections currently borrowed", pool::getActiveCount);
+        Metrics.gauge("db_pool_idle_connections", "Connections open and waiting in the pool", pool::getIdleCount);
+        Metrics.gauge("db_pool_waiting_threads", "Threads waiting for a connection", pool::getWaitingCount);
+        Metrics.counter("db_pool_acquire_timeouts_total", "Connection requests that timed out", pool::getTimeoutCount);
+        Metrics.counter("db_pool_connections_created_total", "Physical connections opened", pool::getCreatedCount);
+        Metrics.counter("db_pool_leaks_detected_total", "Connections reported as possibly leaked", pool::getLeakCount);
+
+        Metrics.gauge("db_executor_active_threads", "Db executor threads running a task", DbExecutor::getActiveCount);
+        Metrics.gauge("db_executor_queued_tasks", "Tasks waiting for a db executor thread", DbExecutor::getQueuedCount);
+        Metrics.counter("db_executor_rejected_tasks_total", "Tasks refused because the db executor queue was full", DbExecutor::getRejectedCount);
+        Metrics.gauge("cpu_executor_active_threads", "Cpu executor threads running a task", CpuExecutor::getActiveCount);
+        Metrics.gauge("cpu_executor_queued_tasks", "Tasks waiting for a cpu executor thread", CpuExecutor::getQueuedCount);
+        Metrics.counter("cpu_executor_rejected_tasks_total", "Tasks refused because the cpu executor queue was full", CpuExecutor::getRejectedCount);
+
+        LruCache<Integer, Message> messageCache = messageService.getMessageCache();
+        Metrics.gauge("message_cache_size", "Messages in the message cache", messageCache::size);
+        Metrics.counter("message_cache_hits_total", "Message cache hits", messageCache::getHitCount);
+        Metrics.counter("message_cache_misses_total", "Message cache misses", messageCache::getMissCount);
+        Metrics.counter("message_cache_evictions_total", "Message cache evictions", messageCache::getEvictionCount);
+
+        InvertedIndex searchIndex = messageService.getSearchIndex();
+        Metrics.gauge("search_index_messages", "Messages in the search index", searchIndex::getDocumentCount);
+        Metrics.gauge("search_index_terms", "Distinct terms in the search index", searchIndex::getTermCount);
+        Metrics.gauge("search_index_loaded", "1 once the search index has loaded, 0 while searches are answered 503", () -> searchIndex.isLoaded() ? 1 : 0);
+        Metrics.gauge("search_index_load_seconds", "Time the last successful search index load took", () -> searchIndex.getLoadNanos() / 1e9);
+        Metrics.counter("search_index_load_failures_total", "Search index loads that failed", searchIndex::getLoadFailures);
+
+        Metrics.gauge("timeline_feeds", "Home timelines precomputed in memory", timelineService::getFeedCount);
+        Metrics.counter("timeline_fanout_pushes_total", "Message ids pushed into precomputed home timelines", timelineService::getFanoutPushes);
+        Metrics.counter("timeline_feed_loads_total", "Home timelines loaded from the database", timelineService::getFeedLoads);
+        Metrics.counter("timeline_reads_total", "Home timeline pages read", timelineService::getFeedReads, "source", "feed");
+        Metrics.counter("timeline_reads_total", "Home timeline pages read", timelineService::getDatabaseReads, "source", "database");
+
+        Metrics.gauge("stream_subscribers", "Clients connected to the message stream", messageStreamService::getSubscriberCount);
+        Metrics.counter("stream_events_published_total", "Message events published to the message stream", messageStreamService::getPublishedCount);
+        Metrics.counter("stream_subscribers_dropped_total", "Message stream clients dropped for falling behind", messageStreamService::getDroppedCount);
+
+        Metrics.gauge("response_cache_bytes", "Bytes of encoded responses cached", feedCache::getTotalBytes, "cache", "feed");
+        Metrics.gauge("response_cache_entries", "Encoded responses cached", feedCache::size, "cache", "feed");
+
+        Metrics.counter("login_cache_hits_total", "Logins answered from the verified login cache", accountService::getLoginCacheHits);
+        Metrics.counter("login_cache_misses_total", "Logins that had to check the stored password hash", accountService::getLoginCacheMisses);
+        PasswordHasher passwordHasher = accountService.getPasswordHasher();
+        Metrics.counter("password_hashes_total", "Password hashes computed", passwordHasher::getHashCount);
+        Metrics.counter("password_hash_seconds_total", "Time spent computing password hashes", () -> passwordHasher.getHashNanos() / 1e9);
+    }
+
+    //metrics handler
+    private void getMetricsHandler(Context context) {
+        context.contentType("text/plain; version=0.0.4; charset=utf-8");
+        context.result(Metrics.scrape());
+    }
+
+    //labels the response with version's ETag (and Last-Modified), then answers 304 and returns true if the client's
+    //If-None-Match (or, without one, If-Modified-Since) shows its copy is still current
+    //version must be read before the data it describes, see VersionTracker
+    private boolean notModified(Context context, VersionTracker.Version version) {
+        long now = System.currentTimeMillis();
+        String etag = version.etag();
+        context.header(Header.ETAG, etag);
+        //caches may keep the response but must check back before using it
+        context.header(Header.CACHE_CONTROL, "no-cache");
+
+        //Last-Modified has one second precision, so it is only given once that second is over and no later write can
+        //share it, otherwise a client could hold a copy from before a write in the same second and never see it
+        boolean lastModifiedSettled = version.lastModifiedSeconds() < now / 1000;
+        if(lastModifiedSettled) context.header(Header.LAST_MODIFIED, version.lastModified());
+
+        boolean current;
+        String ifNoneMatch = context.header(Header.IF_NONE_MATCH);
+        if(ifNoneMatch != null) {
+            current = false;
+            //If-None-Match uses weak comparison, so W/"x" matches "x", and the gzipped copy's tag is just as current
+            for(String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if(tag.startsWith("W/")) tag = tag.substring(2);
+                if(tag.equals("*") || tag.equals(etag) || tag.equals(gzipEtag(etag))) current = true;
+            }
+        } else {
+            current = lastModifiedSettled && ifModifiedSinceSeconds(context) >= version.lastModifiedSeconds();
+        }
+        if(current) context.status(HttpStatus.NOT_MODIFIED);
+        return current;
+    }
+
+    //If-Modified-Since in epoch seconds, or -1 if absent or not a valid HTTP date
+    private long ifModifiedSinceSeconds(Context context) {
+        String ifModifiedSince = context.header(Header.IF_MODIFIED_SINCE);
+        if(ifModifiedSince == null) return -1;
+        try {
+            return ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+        } catch(DateTimeParseException e) {
+            return -1;
+        }
+    }
+
     //register new account handler
-    private void postRegisterHandler(Context context) throws JsonProcessingException {
+    private void postRegisterHandler(Context context) throws IOException {
         //get account object from request body
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(context.body(), Account.class);
+        Account account = JsonUtil.ACCOUNT_READER.readValue(context.bodyAsBytes());
         
         //call createAccount() in AccountService sending the Account passed by request body
-        Account createdAccount = accountService.createAccount(account);
-
-        //if account created, return JSON string of account object, else return 400 as response
-        if(createdAccount != null) context.json(createdAccount);
-        else context.status(400);
+        context.future(() -> accountService.createAccountAsync(account).thenAccept(createdAccount -> {
+            //if account created, return JSON string of account object, else return 400 as response
+            if(createdAccount != null) context.json(createdAccount);
+            else context.status(400);
+        }));
     }
 
     //login with existing account handler
-    private void postLoginHandler(Context context) throws JsonProcessingException {
+    private void postLoginHandler(Context context) throws IOException {
         //get account object from request body
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(context.body(), Account.class);
+        Account account = JsonUtil.ACCOUNT_READER.readValue(context.bodyAsBytes());
 
         //call loginAccount() in AccountService sending the Account passed by request body
-        Account loginSuccessAccount = accountService.loginAccount(account);
-
-        //if account credentials vaild, return JSON string of account object, else return 401 as response
-        if(loginSuccessAccount != null) context.json(loginSuccessAccount); 
-        else context.status(401);
+        context.future(() -> accountService.loginAccountAsync(account).thenAccept(loginSuccessAccount -> {
+            //if account credentials vaild, return JSON string of account object, else return 401 as response
+            if(loginSuccessAccount != null) context.json(loginSuccessAccount);
+            else context.status(401);
+        }));
     }
 
     //get all messages handler
-    private void getAllMessagesHandler(Context context) {
-        //initialize messages list
-        List<Message> messages = messageService.getAllMessages();
-        
-        //return messages with 200 status (even if messages list is empty)
+    //with ?after=&limit= returns one page ordered by message_id, otherwise streams every message
+    //with ?since=&until= only messages posted in that time range, in time order, see getTimeRangeHandler
+    private void getAllMessagesHandler(Context context) throws IOException {
+        //nothing written since the client's copy, skip the query and serialization
+        VersionTracker.Version version = messageService.getVersions().table();
+        if(notModified(context, version)) return;
+
+        if(hasTimeRange(context)) {
+            getTimeRangeHandler(context, null);
+            return;
+        }
+
+        if(context.queryParam("after") != null || context.queryParam("limit") != null) {
+            //invalid numbers are rejected by Javalin's validator with a 400
+            int after = context.queryParamAsClass("after", Integer.class).getOrDefault(0);
+            int limit = Math.max(1, Math.min(MessageService.MAX_PAGE_SIZE,
+                context.queryParamAsClass("limit", Integer.class).getOrDefault(MessageService.DEFAULT_PAGE_SIZE)));
+
+            //the same page at the same version is written from the bytes encoded for the first reader
+            String key = "page:" + after + ":" + limit;
+            EncodedResponseCache.Entry cached = feedCache.get(key, version);
+            if(cached != null) {
+                writeEncoded(context, cached);
+                return;
+            }
+
+            context.future(() -> messageService.getMessagesPageAsync(after, limit).thenAccept(messages -> {
+                Map<String, String> headers = new HashMap<>();
+                //a full page means there may be more, so tell the client where to continue from
+                if(!messages.isEmpty() && messages.size() >= limit) {
+                    headers.put(NEXT_AFTER_HEADER, String.valueOf(messages.get(messages.size() - 1).getMessage_id()));
+                }
+                //return messages with 200 status (even if messages list is empty)
+                try {
+                    byte[] json = JsonUtil.MESSAGE_LIST_WRITER.writeValueAsBytes(messages);
+                    EncodedResponseCache.Entry entry = feedCache.put(key, version, json, headers);
+                    if(entry != null) writeEncoded(context, entry);
+                    else {
+                        headers.forEach(context::header);
+                        context.contentType("application/json").result(json);
+                    }
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            return;
+        }
+
+        EncodedResponseCache.Entry cached = feedCache.get("all", version);
+        if(cached != null) {
+            writeEncoded(context, cached);
+            return;
+        }
+
+        //stream the JSON array straight from the result set so memory use doesn't grow with the table, keeping a copy
+        //for the cache unless the feed turns out too large to keep
+        //this stays synchronous, the response is written while the rows are still being read
+        context.contentType("application/json");
+        EncodedResponseCache.CapturingOutputStream out =
+            new EncodedResponseCache.CapturingOutputStream(context.outputStream(), feedCache.getMaxEntryBytes());
+        writeMessageArray(out, messageService::streamAllMessages);
+        byte[] json = out.captured();
+        if(json != null) feedCache.put("all", version, json, Collections.emptyMap());
+    }
+
+    //writes the messages source hands over as a JSON array straight to out, one at a time as they are read
+    //if source throws the generator is left unclosed, so the array is never closed and a failed read can't pass for
+    //a short list, and if nothing was flushed yet nothing is written at all and the error becomes a 500
+    private static void writeMessageArray(OutputStream out, Consumer<Consumer<Message>> source) throws IOException {
+        JsonGenerator generator = JsonUtil.MAPPER.getFactory().createGenerator(out);
+        generator.writeStartArray();
+        source.accept(message -> {
+            try {
+                generator.writeObject(message);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        generator.writeEndArray();
+        generator.close();
+    }
+
+    //true if the request asks for a time range with ?since= or ?until=
+    private static boolean hasTimeRange(Context context) {
+        return context.queryParam("since") != null || context.queryParam("until") != null;
+    }
+
+    //messages posted from ?since= up to but not including ?until= (time_posted_epoch values, either may be left out),
+    //by account_id or by everyone if it's null, in (time_posted_epoch, message_id) order
+    //with ?after=<time_posted_epoch>:<message_id>&limit= returns one page, otherwise streams the whole range
+    private void getTimeRangeHandler(Context context, Integer account_id) throws IOException {
+        //invalid numbers are rejected by Javalin's validator with a 400
+        long since = context.queryParamAsClass("since", Long.class).getOrDefault(Long.MIN_VALUE);
+        long until = context.queryParamAsClass("until", Long.class).getOrDefault(Long.MAX_VALUE);
+
+        if(context.queryParam("after") != null || context.queryParam("limit") != null) {
+            int limit = context.queryParamAsClass("limit", Integer.class).getOrDefault(MessageService.DEFAULT_PAGE_SIZE);
+            TimeCursor cursor = TimeCursor.parse(context.queryParam("after"));
+            Long after_time = cursor == null ? null : cursor.time_posted_epoch;
+            int after_message_id = cursor == null ? 0 : cursor.message_id;
+            context.future(() -> (account_id == null
+                    ? messageService.getMessagesByTimePageAsync(since, until, after_time, after_message_id, limit)
+                    : messageService.getMessagesByAccountIdPageAsync(account_id, since, until, after_time, after_message_id, limit))
+                    .thenAccept(messages -> writeTimePage(context, messages, limit)));
+            return;
+        }
+
+        //this stays synchronous like the full feed, the response is written while the rows are still being read
+        context.contentType("application/json");
+        writeMessageArray(context.outputStream(), consumer -> messageService.streamMessagesByTime(account_id, since, until, consumer));
+    }
+
+    //writes a page of messages in time order, with the cursor of its last message if there may be more
+    private void writeTimePage(Context context, List<Message> messages, int limit) {
+        //a full page means there may be more, so tell the client where to continue from
+        if(!messages.isEmpty() && messages.size() >= Math.min(limit, MessageService.MAX_PAGE_SIZE)) {
+            context.header(NEXT_AFTER_HEADER, TimeCursor.of(messages.get(messages.size() - 1)));
+        }
         context.json(messages);
     }
 
+    //position in (time_posted_epoch, message_id) order, written <time_posted_epoch>:<message_id>
+    private static class TimeCursor {
+        final long time_posted_epoch;
+        final int message_id;
+
+        private TimeCursor(long time_posted_epoch, int message_id) {
+            this.time_posted_epoch = time_posted_epoch;
+            this.message_id = message_id;
+        }
+
+        //the cursor after message
+        static String of(Message message) {
+            return message.getTime_posted_epoch() + ":" + message.getMessage_id();
+        }
+
+        //null if after is null, 400 if it isn't a valid cursor
+        static TimeCursor parse(String after) {
+            if(after == null) return null;
+            String[] cursor = after.split(":");
+            try {
+                if(cursor.length != 2) throw new NumberFormatException(after);
+                return new TimeCursor(Long.parseLong(cursor[0]), Integer.parseInt(cursor[1]));
+            } catch(NumberFormatException e) {
+                throw new BadRequestResponse("after must be <time_posted_epoch>:<message_id>");
+            }
+        }
+    }
+
+    //writes a cached body as is, gzipped if the client accepts that, straight to the servlet response so Javalin
+    //doesn't compress it again
+    private void writeEncoded(Context context, EncodedResponseCache.Entry entry) throws IOException {
+        entry.headers().forEach(context::header);
+        context.contentType("application/json");
+        context.header(Header.VARY, Header.ACCEPT_ENCODING);
+        byte[] body;
+        if(acceptsGzip(context)) {
+            body = entry.gzip();
+            context.header(Header.CONTENT_ENCODING, "gzip");
+            //a different encoding is a different representation, so it gets its own strong ETag
+            context.header(Header.ETAG, gzipEtag(context.res().getHeader(Header.ETAG)));
+        } else {
+            body = entry.json();
+        }
+        context.res().setContentLength(body.length);
+        context.res().getOutputStream().write(body);
+    }
+
+    private boolean acceptsGzip(Context context) {
+        String acceptEncoding = context.header(Header.ACCEPT_ENCODING);
+        if(acceptEncoding == null) return false;
+        for(String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split("\\s*;\\s*");
+            if(parts[0].equalsIgnoreCase("gzip")) return !(parts.length > 1 && parts[1].matches("q=0(\\.0*)?"));
+        }
+        return false;
+    }
+
+    //"abc" becomes "abc-gzip"
+    private static String gzipEtag(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
     //add message handler
-    private void postMessageHandler(Context context) throws JsonProcessingException {
+    private void postMessageHandler(Context context) throws IOException {
         //get message object from request body
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(context.body(), Message.class);
+        Message message = JsonUtil.MESSAGE_READER.readValue(context.bodyAsBytes());
 
         //call addMessage() in MessageService sending the Message passed by request body
-        Message addedMessage = messageService.addMessage(message);
+        context.future(() -> messageService.addMessageAsync(message).thenAccept(addedMessage -> {
+            //if message added, return JSON string of added message object, else return 400 as response
+            if(addedMessage != null) context.json(addedMessage);
+            else context.status(400);
+        }));
+    }
+
+    //bulk add messages handler
+    //parses the body one message at a time so a large import never has to fit in memory
+    private void postMessagesBulkHandler(Context context) throws IOException {
+        MessageService.BulkInsert bulkInsert = messageService.startBulkInsert();
+        Map<String, Object> result = new LinkedHashMap<>();
 
-        //if message added, return JSON string of added message object, else return 400 as response
-        if(addedMessage != null) context.json(addedMessage);
-        else context.status(400);
+        //readValues walks the elements of a top-level JSON array, or a stream of whitespace separated JSON objects
+        try (MappingIterator<Message> messages = JsonUtil.MESSAGE_READER.readValues(context.bodyInputStream())) {
+            while(messages.hasNext()) bulkInsert.add(messages.next());
+        } catch(IOException | RuntimeJsonMappingException e) {
+            //rows before the malformed one are still written, report how far we got
+            context.status(400);
+            result.put("error", e.getMessage());
+        }
+        bulkInsert.finish();
+
+        result.put("inserted", bulkInsert.getInserted());
+        result.put("rejected", bulkInsert.getRejected());
+        context.json(result);
+    }
+
+    //search messages handler
+    //?q= is required, results are ranked best match first and paged with ?offset=&limit=
+    private void searchMessagesHandler(Context context) {
+        String query = context.queryParam("q");
+        if(query == null || query.isBlank()) throw new BadRequestResponse("q is required");
+        int offset = context.queryParamAsClass("offset", Integer.class).getOrDefault(0);
+        int limit = context.queryParamAsClass("limit", Integer.class).getOrDefault(MessageService.DEFAULT_PAGE_SIZE);
+        if(offset < 0 || offset > MessageService.MAX_SEARCH_OFFSET) {
+            throw new BadRequestResponse("offset must be between 0 and " + MessageService.MAX_SEARCH_OFFSET);
+        }
+        //the results change with any write to the table
+        if(notModified(context, messageService.getVersions().table())) return;
+
+        context.future(() -> messageService.searchMessagesAsync(query, offset, limit).thenAccept(results -> {
+            context.header(TOTAL_COUNT_HEADER, String.valueOf(results.getTotal()));
+            //more matches past this page, tell the client where to continue from
+            int next = offset + Math.max(1, Math.min(limit, MessageService.MAX_PAGE_SIZE));
+            if(next < results.getTotal() && next <= MessageService.MAX_SEARCH_OFFSET) {
+                context.header(NEXT_OFFSET_HEADER, String.valueOf(next));
+            }
+            context.json(results.getMessages());
+        }));
     }
 
     //get message by message_id handler
@@ -108,12 +544,14 @@ public class SocialMediaController {
         //in future, should add NumberFormatException to check for invalid passed in ID
         //cast passed in parameter (String) to int
         int message_id = Integer.parseInt(context.pathParam("message_id"));
-        Message message = messageService.getMessageById(message_id);
-
-        //return message with 200 status if message is not null
-        if(message != null) context.json(message);
-        //return empty response if message is null
-        else context.result("");
+        //versioned by the whole table, since which account posted it isn't known without a lookup
+        if(notModified(context, messageService.getVersions().table())) return;
+        context.future(() -> messageService.getMessageByIdAsync(message_id).thenAccept(message -> {
+            //return message with 200 status if message is not null
+            if(message != null) context.json(message);
+            //return empty response if message is null
+            else context.result("");
+        }));
     }
 
     //delete message by message_id handler
@@ -121,40 +559,162 @@ public class SocialMediaController {
         //in future, should add NumberFormatException to check for invalid passed in ID
         //cast passed in parameter (String) to int
         int message_id = Integer.parseInt(context.pathParam("message_id"));
-        Message message = messageService.deleteMessageById(message_id);
-
-        //return deleted message with 200 status as response if message is not null
-        if(message != null) context.json(message);
-        //return empty response if message is null
-        else context.result("");
+        context.future(() -> messageService.deleteMessageByIdAsync(message_id).thenAccept(message -> {
+            //return deleted message with 200 status as response if message is not null
+            if(message != null) context.json(message);
+            //return empty response if message is null
+            else context.result("");
+        }));
     }
 
     //update message by message_id handler
-    private void patchMessageByIdHandler(Context context) throws JsonProcessingException{
+    private void patchMessageByIdHandler(Context context) throws IOException{
         //in future, should add NumberFormatException to check for invalid passed in ID
         //cast passed in parameter (String) to int
         int message_id = Integer.parseInt(context.pathParam("message_id"));
 
         //this only works if we know Message obj sent as body, unclear if Message obj sent or if String message_text sent
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(context.body(), Message.class);
+        Message message = JsonUtil.MESSAGE_READER.readValue(context.bodyAsBytes());
         String message_text = message.getMessage_text();
-        Message patchedMessage = messageService.patchMessageById(message_text, message_id);
-
-        //return updated message with 200 status as response if message is not null
-        if(patchedMessage != null) context.json(patchedMessage);
-        //return 400 as response
-        else context.status(400);
+        context.future(() -> messageService.patchMessageByIdAsync(message_text, message_id).thenAccept(patchedMessage -> {
+            //return updated message with 200 status as response if message is not null
+            if(patchedMessage != null) context.json(patchedMessage);
+            //return 400 as response
+            else context.status(400);
+        }));
     }
 
-    //get all messages from specific user 
-    private void getAllMessagesByUserHandler(Context context) {
+    //get all messages from specific user
+    //with ?after=<time_posted_epoch>:<message_id>&limit= returns one page in time order, otherwise every message
+    //with ?since=&until= only messages posted in that time range, see getTimeRangeHandler
+    private void getAllMessagesByUserHandler(Context context) throws IOException {
         //in future, should add NumberFormatException to check for invalid passed in ID
         //cast passed in parameter (String) to int
         int account_id = Integer.parseInt(context.pathParam("account_id"));
-        List<Message> messages = messageService.getAllMessagesByAccountId(account_id);
-        
+        //only this account's messages are in the response, so only its writes matter
+        if(notModified(context, messageService.getVersions().account(account_id))) return;
+
+        //pages are a time range that covers every message
+        if(hasTimeRange(context) || context.queryParam("after") != null || context.queryParam("limit") != null) {
+            getTimeRangeHandler(context, account_id);
+            return;
+        }
+
         //return messages with 200 status as response (even if messages list is empty)
-        context.json(messages);
+        context.future(() -> messageService.getAllMessagesByAccountIdAsync(account_id).thenAccept(context::json));
+    }
+
+    //follow handler, PUT so following twice is the same as once
+    private void putFollowingHandler(Context context) {
+        int account_id = Integer.parseInt(context.pathParam("account_id"));
+        int followee_id = Integer.parseInt(context.pathParam("followee_id"));
+        context.future(() -> timelineService.followAsync(account_id, followee_id).thenAccept(followed -> {
+            //empty 200 if now following, 400 if either account doesn't exist or they're the same account
+            if(followed) context.result("");
+            else context.status(400);
+        }));
+    }
+
+    //unfollow handler, 200 with an empty body whether or not it was following, like deleting a message
+    private void deleteFollowingHandler(Context context) {
+        int account_id = Integer.parseInt(context.pathParam("account_id"));
+        int followee_id = Integer.parseInt(context.pathParam("followee_id"));
+        context.future(() -> timelineService.unfollowAsync(account_id, followee_id).thenAccept(unfollowed -> context.result("")));
+    }
+
+    //home timeline handler
+    //newest first, ?before=<message_id>&limit= pages back through older messages
+    private void getTimelineHandler(Context context) {
+        int account_id = Integer.parseInt(context.pathParam("account_id"));
+        //invalid numbers are rejected by Javalin's validator with a 400
+        int before = context.queryParamAsClass("before", Integer.class).getOrDefault(Integer.MAX_VALUE);
+        int limit = context.queryParamAsClass("limit", Integer.class).getOrDefault(MessageService.DEFAULT_PAGE_SIZE);
+        context.future(() -> timelineService.getTimelineAsync(account_id, before, limit).thenAccept(page -> {
+            //there may be older messages, tell the client where to continue from
+            if(page.getNextBefore() != null) context.header(NEXT_BEFORE_HEADER, String.valueOf(page.getNextBefore()));
+            context.json(page.getMessages());
+        }));
+    }
+
+    //subscribes a GET /messages/stream before Javalin starts the event stream, so a full stream can still be answered
+    //503, and nothing committed once the client has its response headers is missed
+    private void subscribeStreamHandler(Context context) {
+        //without this Accept header Javalin doesn't start a stream, so there would be no one to close the subscriber
+        if(!"text/event-stream".equals(context.header(Header.ACCEPT))) return;
+        EventStream.Subscriber subscriber = messageStreamService.subscribe();
+        if(subscriber == null) {
+            context.header("Retry-After", String.valueOf(MessageStreamService.HEARTBEAT_SECONDS));
+            throw new ServiceUnavailableResponse("too many subscribers");
+        }
+        context.attribute(STREAM_SUBSCRIBER_ATTRIBUTE, subscriber);
+    }
+
+    //message stream handler, sends what a resuming client missed, then leaves the connection open for the stream's
+    //writer threads and returns, so a connected client holds no thread
+    //a client resuming after the sequence_id in Last-Event-ID (or ?after= on a first connect) is sent every message
+    //event since from the event log first, then the live events
+    private void streamMessagesHandler(SseClient client) {
+        Context context = client.ctx;
+        EventStream.Subscriber subscriber = context.attribute(STREAM_SUBSCRIBER_ATTRIBUTE);
+        String lastEventId = context.header(LAST_EVENT_ID_HEADER);
+        if(lastEventId == null) lastEventId = context.queryParam("after");
+        Long after = null;
+        try {
+            if(lastEventId != null) after = Long.parseLong(lastEventId.trim());
+        } catch(NumberFormatException e) {
+            //not an id this stream sent, start from the live events
+        }
+
+        AtomicBoolean closed = new AtomicBoolean();
+        //called when a write finds the client has gone, and when we close it
+        client.onClose(() -> {
+            closed.set(true);
+            subscriber.close();
+        });
+
+        //live events queue up in the subscriber meanwhile, the ones replayed are skipped once it starts
+        long replayedThrough;
+        try {
+            replayedThrough = after == null ? -1 : messageStreamService.replay(after, event -> send(client, event));
+        } catch(DataAccessException e) {
+            //already logged, end the stream rather than skip what couldn't be read, the client reconnects and retries
+            client.close();
+            return;
+        }
+        if(closed.get()) return;
+
+        //kept alive before starting, so a close by the first delivery (if it was dropped during the replay) ends it
+        client.keepAlive();
+        subscriber.start(event -> {
+            if(event == EventStream.HEARTBEAT) {
+                client.sendComment("heartbeat");
+            } else if(event == EventStream.DROPPED) {
+                //fell too far behind, the client reconnects with its Last-Event-ID and catches up from the table
+                client.sendEvent(event.name(), "reconnect to resume");
+                client.close();
+            } else if(event.id() > replayedThrough) {
+                send(client, event);
+            }
+        });
+    }
+
+    private static void send(SseClient client, EventStream.Event event) {
+        client.sendEvent(event.name(), event.data(), String.valueOf(event.id()));
+    }
+
+    //event log handler
+    private void getEventsHandler(Context context) {
+        //invalid numbers are rejected by Javalin's validator with a 400
+        long after = context.queryParamAsClass("after", Long.class).getOrDefault(0L);
+        int limit = context.queryParamAsClass("limit", Integer.class).getOrDefault(MessageService.DEFAULT_PAGE_SIZE);
+        //only events about messages or accounts, or all of them without it
+        String entity = context.queryParam("entity");
+        context.future(() -> eventLogService.getEventsAfterAsync(after, entity, limit).thenAccept(events -> {
+            //a full page means there may be more, so tell the client where to continue from
+            if(!events.isEmpty() && events.size() >= Math.min(limit, MessageService.MAX_PAGE_SIZE)) {
+                context.header(NEXT_AFTER_HEADER, String.valueOf(events.get(events.size() - 1).getSequence_id()));
+            }
+            context.json(events);
+        }));
     }
-}
\ No newline at end of file
+}
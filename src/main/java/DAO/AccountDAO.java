@@ -1,95 +1,232 @@
 package DAO;
 
 import Model.Account;
+import Util.BloomFilter;
 import Util.ConnectionUtil;
+import Util.LruCache;
+import Util.Metrics;
 
 import java.sql.*;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class AccountDAO {
+    //query time per DAO method, from borrowing the connection to giving it back
+    private static final Metrics.Timer LOAD_ACCOUNTS_TIMER = Metrics.daoTimer("AccountDAO.loadAccounts");
+    private static final Metrics.Timer COUNT_ACCOUNTS_TIMER = Metrics.daoTimer("AccountDAO.countAccounts");
+    private static final Metrics.Timer ACCOUNT_EXISTS_TIMER = Metrics.daoTimer("AccountDAO.accountExists");
+    private static final Metrics.Timer CREATE_ACCOUNT_TIMER = Metrics.daoTimer("AccountDAO.createAccount");
+    private static final Metrics.Timer GET_VALID_USERNAME_TIMER = Metrics.daoTimer("AccountDAO.getValidUsername");
+    private static final Metrics.Timer GET_ACCOUNT_BY_USERNAME_TIMER = Metrics.daoTimer("AccountDAO.getAccountByUsername");
+    private static final Metrics.Timer UPDATE_PASSWORD_TIMER = Metrics.daoTimer("AccountDAO.updatePassword");
+
+    //SQLState H2 (and the SQL standard) uses for a unique constraint violation
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    //every account_id known to exist, so existence checks don't need a query, filled at startup and by createAccount
+    private final Set<Integer> knownAccountIds = ConcurrentHashMap.newKeySet();
+    //every username taken at startup or since, a miss means the username is definitely free
+    private BloomFilter takenUsernameFilter;
+    //usernames confirmed taken, usernames are never freed so these can be rejected from memory for good
+    private final LruCache<String, Boolean> takenUsernames = new LruCache<>(Integer.getInteger("accounts.takenUsernameCache.maxSize", 10000));
+
+    //constructor loading the ids and usernames of all existing accounts
+    public AccountDAO() {
+        loadAccounts();
+    }
 
-    public Account createAccount(Account account) {
-        //connect to db using ConnectionUtil class
-        Connection connection = ConnectionUtil.getConnection();
+    //method to read every account_id into knownAccountIds and every username into takenUsernameFilter
+    private void loadAccounts() {
+        //size the filter for growth well past the accounts that exist today
+        long expected = Math.max(Long.getLong("accounts.usernameFilter.expected", 1000000), 2 * countAccounts());
+        takenUsernameFilter = new BloomFilter(expected, 0.01);
+
+        String sql = "SELECT account_id, username FROM account;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = LOAD_ACCOUNTS_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql);
+             ResultSet rs = preparedStatement.executeQuery()) {
+            while(rs.next()) {
+                knownAccountIds.add(rs.getInt("account_id"));
+                takenUsernameFilter.add(rs.getString("username"));
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("AccountDAO.loadAccounts", e);
+        }
+    }
+
+    //method to count rows in account db
+    private long countAccounts() {
+        String sql = "SELECT COUNT(*) FROM account;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = COUNT_ACCOUNTS_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql);
+             ResultSet rs = preparedStatement.executeQuery()) {
+            if(rs.next()) return rs.getLong(1);
+        } catch(SQLException e) {
+            Metrics.daoError("AccountDAO.countAccounts", e);
+        }
+        return 0;
+    }
+
+    //method to check if an account with this account_id exists
+    //answered from memory for every account we know about, falls back to a primary key lookup otherwise
+    public boolean accountExists(int account_id) {
+        if(knownAccountIds.contains(account_id)) return true;
+
+        String sql = "SELECT 1 FROM account WHERE account_id=?;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = ACCOUNT_EXISTS_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, account_id);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                //account was created outside this DAO, remember it for next time
+                if(rs.next()) {
+                    knownAccountIds.add(account_id);
+                    return true;
+                }
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("AccountDAO.accountExists", e);
+        }
+        //return false if no account has this account_id
+        return false;
+    }
 
-        //try/catch block to insert account and catch any SQLException
-        try {
-            //insert account into account db using preparedStatement's paramaterization
-            String sql = "INSERT INTO account (username, password) VALUES (?, ?);";
+    //method to insert a new account, relying on the unique constraint on username to reject duplicates
+    //returns null if the username is taken (even if a concurrent registration took it first) or the insert failed
+    public Account createAccount(Account account) {
+        //insert account into account db using preparedStatement's paramaterization
+        String sql = "INSERT INTO account (username, password) VALUES (?, ?);";
+
+        //try-with-resources to insert account, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = CREATE_ACCOUNT_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection()) {
+            Account created = null;
+            //the insert and its event commit together
+            connection.setAutoCommit(false);
             //pk set to auto-increment, but we need generated pk returned
-            PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-
-            //preparedStatement's set methods
-            preparedStatement.setString(1, account.getUsername());
-            preparedStatement.setString(2, account.getPassword());
-            preparedStatement.executeUpdate();
-
-            ResultSet pkeyRS = preparedStatement.getGeneratedKeys();
-            
-            //check if record was inserted in db, if so extract generated pk and return account containing new pk
-            if(pkeyRS.next()) {
-                int generated_account_id = (int) pkeyRS.getLong(1);
-                return new Account(generated_account_id, account.getUsername(), account.getPassword());
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                //preparedStatement's set methods
+                preparedStatement.setString(1, account.getUsername());
+                preparedStatement.setString(2, account.getPassword());
+                preparedStatement.executeUpdate();
+
+                try (ResultSet pkeyRS = preparedStatement.getGeneratedKeys()) {
+                    //check if record was inserted in db, if so extract generated pk
+                    if(pkeyRS.next()) {
+                        created = new Account((int) pkeyRS.getLong(1), account.getUsername(), account.getPassword());
+                    }
+                }
+                if(created != null) EventLogDAO.append(connection, List.of(EventLogDAO.accountEvent(EventLogDAO.CREATED, created)));
+                connection.commit();
+            } catch(SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            //return account containing new pk
+            if(created != null) {
+                knownAccountIds.add(created.getAccount_id());
+                markUsernameTaken(created.getUsername());
+                return created;
             }
-            
         } catch(SQLException e) {
-            System.out.println(e.getMessage());
+            //unique constraint violation, someone else has this username
+            if(UNIQUE_VIOLATION.equals(e.getSQLState())) markUsernameTaken(account.getUsername());
+            else Metrics.daoError("AccountDAO.createAccount", e);
         }
 
         //return null if account wasn't added to account db
         return null;
     }
 
-    //method to check if username exists in account db
+    //method to check if username is free, answered from memory when possible
     public boolean getValidUsername(String username) {
-        //connect to db using ConnectionUtil class
-        Connection connection = ConnectionUtil.getConnection();
+        //confirmed taken before, usernames never become free again
+        if(takenUsernames.get(username) != null) return false;
+        //the filter has never seen it, so no account has it
+        if(!takenUsernameFilter.mightContain(username)) return true;
 
-        //try/catch block to execute query and catch any SQLException
-        try {
-            //query to get all usernames from account db where username is passed in as parameter
-            String sql = "SELECT username FROM account WHERE username=?;";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        //query to get all usernames from account db where username is passed in as parameter
+        String sql = "SELECT username FROM account WHERE username=?;";
 
-            preparedStatement.setString(1, username);
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_VALID_USERNAME_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
-            ResultSet rs = preparedStatement.executeQuery();
+            preparedStatement.setString(1, username);
 
-            //if no record is returned, we know username doesn't exist and we can return true
-            if(!rs.next()) return true;
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                //if no record is returned, we know username doesn't exist and we can return true
+                if(!rs.next()) return true;
+                markUsernameTaken(username);
+            }
         } catch(SQLException e) {
-            System.out.println(e.getMessage());
+            Metrics.daoError("AccountDAO.getValidUsername", e);
         }
         //return false if username exists
         return false;
     }
 
+    private void markUsernameTaken(String username) {
+        takenUsernameFilter.add(username);
+        takenUsernames.put(username, Boolean.TRUE);
+    }
 
-    //method to check if username and password exist in account db and to return full account details
-    public Account getValidAccount(String username, String password) {
-        //connect to db using ConnectionUtil class
-        Connection connection = ConnectionUtil.getConnection();
+    //method to get an account by username, including its stored password hash, null if there is no such account
+    public Account getAccountByUsername(String username) {
+        //query answered from the unique index on username
+        String sql = "SELECT account_id, username, password FROM account WHERE username=?;";
 
-        //try/catch block to execute query and catch any SQLException
-        try {
-            //query to check if username and password found in account db
-            String sql = "SELECT * FROM account WHERE username=? AND password=?;";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_ACCOUNT_BY_USERNAME_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
             preparedStatement.setString(1, username);
-            preparedStatement.setString(2, password);
 
-            ResultSet rs = preparedStatement.executeQuery();
-
-            //if record is returned, we know credentials valid and we can return the account details
-            if(rs.next()) {
-                return new Account(rs.getInt("account_id"), rs.getString("username"), rs.getString("password")); 
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                //if record is returned, return the account details so the caller can verify the password
+                if(rs.next()) {
+                    return new Account(rs.getInt("account_id"), rs.getString("username"), rs.getString("password"));
+                }
             }
         } catch(SQLException e) {
-            System.out.println(e.getMessage());
+            Metrics.daoError("AccountDAO.getAccountByUsername", e);
         }
-        //return null if no user with provided credentials exist
+        //return null if no user with provided username exists
         return null;
     }
 
-    
+    //method to replace the stored password (hash) of an account
+    public boolean updatePassword(int account_id, String password) {
+        String sql = "UPDATE account SET password=? WHERE account_id=?;";
+
+        //try-with-resources to execute update, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = UPDATE_PASSWORD_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+
+            preparedStatement.setString(1, password);
+            preparedStatement.setInt(2, account_id);
+
+            return preparedStatement.executeUpdate() > 0;
+        } catch(SQLException e) {
+            Metrics.daoError("AccountDAO.updatePassword", e);
+        }
+        //return false if no account was updated
+        return false;
+    }
 }
@@ -0,0 +1,11 @@
+package DAO;
+
+import java.sql.SQLException;
+
+//thrown instead of returning an empty or partial result by DAO methods whose callers must not mistake a failed query
+//for a real answer, such as reads that end up in a response cache
+public class DataAccessException extends RuntimeException {
+    public DataAccessException(String method, SQLException cause) {
+        super(method + ": " + cause.getMessage(), cause);
+    }
+}
@@ -0,0 +1,140 @@
+package DAO;
+
+import Model.Account;
+import Model.ChangeEvent;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.JsonUtil;
+import Util.Metrics;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.sql.*;
+import java.util.*;
+
+//the event log: every message and account change, in the order it was committed, for consumers to tail from a
+//sequence_id instead of re-reading the tables
+//
+//events are appended by the DAO writes on their own connection, inside the same transaction as the change, so an
+//event exists exactly when its change does
+public class EventLogDAO {
+    //query time per DAO method, from borrowing the connection to giving it back
+    private static final Metrics.Timer GET_EVENTS_AFTER_TIMER = Metrics.daoTimer("EventLogDAO.getEventsAfter");
+    private static final Metrics.Timer GET_LAST_SEQUENCE_ID_TIMER = Metrics.daoTimer("EventLogDAO.getLastSequenceId");
+    private static final Metrics.Counter APPENDED = Metrics.counter("event_log_appended_total",
+            "Change events appended to the event log");
+
+    public static final String MESSAGE = "message";
+    public static final String ACCOUNT = "account";
+    public static final String CREATED = "created";
+    public static final String UPDATED = "updated";
+    public static final String DELETED = "deleted";
+
+    //method to append events to the log on the given connection, inside the caller's transaction, filling in their
+    //sequence_id and recorded_at
+    //claiming the sequence_ids locks the one counter row until the caller commits or rolls back, so changes that log
+    //events commit one at a time in sequence order and a rolled back change gives its numbers back: a reader that has
+    //seen sequence_id n has seen every event up to n, and reading on from n never skips one committed later
+    static void append(Connection connection, List<ChangeEvent> events) throws SQLException {
+        if(events.isEmpty()) return;
+        String claimSql = "SELECT last_sequence_id FROM FINAL TABLE (UPDATE event_sequence SET last_sequence_id = last_sequence_id + ?);";
+        String insertSql = "INSERT INTO event_log (sequence_id, entity, entity_id, operation, payload, recorded_at) VALUES (?, ?, ?, ?, ?, ?);";
+
+        long sequence_id;
+        try (PreparedStatement preparedStatement = connection.prepareStatement(claimSql)) {
+            preparedStatement.setInt(1, events.size());
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                rs.next();
+                //the last of the numbers claimed, count back to the first
+                sequence_id = rs.getLong(1) - events.size();
+            }
+        }
+
+        long recorded_at = System.currentTimeMillis();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(insertSql)) {
+            for(ChangeEvent event : events) {
+                event.setSequence_id(++sequence_id);
+                event.setRecorded_at(recorded_at);
+                preparedStatement.setLong(1, event.getSequence_id());
+                preparedStatement.setString(2, event.getEntity());
+                preparedStatement.setInt(3, event.getEntity_id());
+                preparedStatement.setString(4, event.getOperation());
+                preparedStatement.setString(5, event.getPayload());
+                preparedStatement.setLong(6, recorded_at);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+        APPENDED.add(events.size());
+    }
+
+    //builds the event for a change to message, as it is now (as it was, for a delete)
+    static ChangeEvent messageEvent(String operation, Message message) {
+        try {
+            return new ChangeEvent(MESSAGE, message.getMessage_id(), operation, JsonUtil.MESSAGE_WRITER.writeValueAsString(message));
+        } catch(JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //builds the event for a change to account, leaving its password out of the log
+    static ChangeEvent accountEvent(String operation, Account account) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("account_id", account.getAccount_id());
+        payload.put("username", account.getUsername());
+        try {
+            return new ChangeEvent(ACCOUNT, account.getAccount_id(), operation, JsonUtil.MAPPER.writeValueAsString(payload));
+        } catch(JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //method to get up to limit events with a sequence_id above after_sequence_id, oldest first, only those about entity
+    //if it isn't null
+    //throws DataAccessException if the query fails, rather than answer as if there were nothing new
+    public List<ChangeEvent> getEventsAfter(long after_sequence_id, String entity, int limit) {
+        List<ChangeEvent> events = new ArrayList<>();
+
+        //seeks into the primary key and reads on in order, skipping events about other entities
+        String sql = entity == null
+            ? "SELECT sequence_id, entity, entity_id, operation, payload, recorded_at FROM event_log WHERE sequence_id > ? ORDER BY sequence_id LIMIT ?;"
+            : "SELECT sequence_id, entity, entity_id, operation, payload, recorded_at FROM event_log WHERE sequence_id > ? AND entity=? ORDER BY sequence_id LIMIT ?;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_EVENTS_AFTER_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            int parameter = 1;
+            preparedStatement.setLong(parameter++, after_sequence_id);
+            if(entity != null) preparedStatement.setString(parameter++, entity);
+            preparedStatement.setInt(parameter, limit);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while(rs.next()) {
+                    events.add(new ChangeEvent(rs.getLong("sequence_id"), rs.getString("entity"), rs.getInt("entity_id"),
+                        rs.getString("operation"), rs.getString("payload"), rs.getLong("recorded_at")));
+                }
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("EventLogDAO.getEventsAfter", e);
+            throw new DataAccessException("EventLogDAO.getEventsAfter", e);
+        }
+        return events;
+    }
+
+    //method to get the sequence_id of the last event committed, 0 if there are none
+    public long getLastSequenceId() {
+        String sql = "SELECT last_sequence_id FROM event_sequence;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_LAST_SEQUENCE_ID_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if(rs.next()) return rs.getLong(1);
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("EventLogDAO.getLastSequenceId", e);
+        }
+        return 0;
+    }
+}
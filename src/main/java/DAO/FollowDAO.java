@@ -0,0 +1,202 @@
+package DAO;
+
+import Util.ConnectionUtil;
+import Util.Metrics;
+
+import java.sql.*;
+import java.util.*;
+
+public class FollowDAO {
+    //query time per DAO method, from borrowing the connection to giving it back
+    private static final Metrics.Timer FOLLOW_TIMER = Metrics.daoTimer("FollowDAO.follow");
+    private static final Metrics.Timer UNFOLLOW_TIMER = Metrics.daoTimer("FollowDAO.unfollow");
+    private static final Metrics.Timer COUNT_FOLLOWERS_TIMER = Metrics.daoTimer("FollowDAO.countFollowers");
+    private static final Metrics.Timer GET_FOLLOWER_IDS_TIMER = Metrics.daoTimer("FollowDAO.getFollowerIds");
+    private static final Metrics.Timer GET_ACCOUNTS_WITH_FOLLOWERS_OVER_TIMER = Metrics.daoTimer("FollowDAO.getAccountsWithFollowersOver");
+    private static final Metrics.Timer GET_FOLLOWEE_IDS_TIMER = Metrics.daoTimer("FollowDAO.getFolloweeIds");
+    private static final Metrics.Timer GET_TIMELINE_MESSAGE_IDS_TIMER = Metrics.daoTimer("FollowDAO.getTimelineMessageIds");
+    private static final Metrics.Timer GET_POSTED_MESSAGE_IDS_TIMER = Metrics.daoTimer("FollowDAO.getPostedMessageIds");
+
+    //SQLState H2 (and the SQL standard) uses for a unique constraint violation
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    //method to record that follower_id follows followee_id
+    //returns true if the follow was added, false if it already existed or the insert failed
+    public boolean follow(int follower_id, int followee_id) {
+        String sql = "INSERT INTO follow (follower_id, followee_id) VALUES (?, ?);";
+
+        //try-with-resources to execute insert, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = FOLLOW_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, follower_id);
+            preparedStatement.setInt(2, followee_id);
+            return preparedStatement.executeUpdate() > 0;
+        } catch(SQLException e) {
+            //primary key violation, already following
+            if(!UNIQUE_VIOLATION.equals(e.getSQLState())) Metrics.daoError("FollowDAO.follow", e);
+        }
+        return false;
+    }
+
+    //method to remove follower_id following followee_id
+    //returns true if there was such a follow
+    public boolean unfollow(int follower_id, int followee_id) {
+        String sql = "DELETE FROM follow WHERE follower_id=? AND followee_id=?;";
+
+        //try-with-resources to execute delete, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = UNFOLLOW_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, follower_id);
+            preparedStatement.setInt(2, followee_id);
+            return preparedStatement.executeUpdate() > 0;
+        } catch(SQLException e) {
+            Metrics.daoError("FollowDAO.unfollow", e);
+        }
+        return false;
+    }
+
+    //method to count the followers of followee_id
+    public int countFollowers(int followee_id) {
+        //counted from follow_followee_idx without reading the table
+        String sql = "SELECT COUNT(*) FROM follow WHERE followee_id=?;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = COUNT_FOLLOWERS_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, followee_id);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if(rs.next()) return rs.getInt(1);
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("FollowDAO.countFollowers", e);
+        }
+        return 0;
+    }
+
+    //method to get the account_ids following followee_id
+    public List<Integer> getFollowerIds(int followee_id) {
+        List<Integer> follower_ids = new ArrayList<>();
+
+        //answered from follow_followee_idx
+        String sql = "SELECT follower_id FROM follow WHERE followee_id=?;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_FOLLOWER_IDS_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, followee_id);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while(rs.next()) follower_ids.add(rs.getInt(1));
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("FollowDAO.getFollowerIds", e);
+        }
+        return follower_ids;
+    }
+
+    //method to get the account_ids followed by more than the given number of accounts
+    //throws DataAccessException if the query fails, it is kept in memory so it can't be left short
+    public Set<Integer> getAccountsWithFollowersOver(int followers) {
+        Set<Integer> account_ids = new HashSet<>();
+
+        //one pass over follow_followee_idx, grouped as it is read
+        String sql = "SELECT followee_id FROM follow GROUP BY followee_id HAVING COUNT(*) > ?;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_ACCOUNTS_WITH_FOLLOWERS_OVER_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, followers);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while(rs.next()) account_ids.add(rs.getInt(1));
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("FollowDAO.getAccountsWithFollowersOver", e);
+            throw new DataAccessException("FollowDAO.getAccountsWithFollowersOver", e);
+        }
+        return account_ids;
+    }
+
+    //method to get the account_ids follower_id follows
+    //throws DataAccessException if the query fails, a timeline loaded from an empty list would never be fanned out to
+    public List<Integer> getFolloweeIds(int follower_id) {
+        List<Integer> followee_ids = new ArrayList<>();
+
+        //answered from the primary key, which starts with follower_id
+        String sql = "SELECT followee_id FROM follow WHERE follower_id=?;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_FOLLOWEE_IDS_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, follower_id);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while(rs.next()) followee_ids.add(rs.getInt(1));
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("FollowDAO.getFolloweeIds", e);
+            throw new DataAccessException("FollowDAO.getFolloweeIds", e);
+        }
+        return followee_ids;
+    }
+
+    //method to get the message_ids below before_message_id posted by anyone follower_id follows, highest first
+    //this reads every followed account's messages, it is the fallback when no precomputed timeline can answer
+    //throws DataAccessException if the query fails, it fills precomputed timelines so it can't be left short
+    public int[] getTimelineMessageIds(int follower_id, int before_message_id, int limit) {
+        String sql = "SELECT m.message_id FROM follow f JOIN message m ON m.posted_by = f.followee_id " +
+            "WHERE f.follower_id=? AND m.message_id < ? ORDER BY m.message_id DESC LIMIT ?;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_TIMELINE_MESSAGE_IDS_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, follower_id);
+            preparedStatement.setInt(2, before_message_id);
+            preparedStatement.setInt(3, limit);
+            return readIds(preparedStatement);
+        } catch(SQLException e) {
+            Metrics.daoError("FollowDAO.getTimelineMessageIds", e);
+            throw new DataAccessException("FollowDAO.getTimelineMessageIds", e);
+        }
+    }
+
+    //method to get the message_ids below before_message_id posted by account_id, highest first
+    public int[] getPostedMessageIds(int account_id, int before_message_id, int limit) {
+        //seeks into message_posted_by_id_idx and reads backwards, so only the rows returned are touched
+        String sql = "SELECT message_id FROM message WHERE posted_by=? AND message_id < ? ORDER BY message_id DESC LIMIT ?;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_POSTED_MESSAGE_IDS_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, account_id);
+            preparedStatement.setInt(2, before_message_id);
+            preparedStatement.setInt(3, limit);
+            return readIds(preparedStatement);
+        } catch(SQLException e) {
+            Metrics.daoError("FollowDAO.getPostedMessageIds", e);
+        }
+        return new int[0];
+    }
+
+    //runs the query and returns its first column as ints
+    private static int[] readIds(PreparedStatement preparedStatement) throws SQLException {
+        int[] ids = new int[16];
+        int count = 0;
+        try (ResultSet rs = preparedStatement.executeQuery()) {
+            while(rs.next()) {
+                if(count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+                ids[count++] = rs.getInt(1);
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+}
@@ -1,194 +1,581 @@
 package DAO;
 
+import Model.ChangeEvent;
 import Model.Message;
 import Util.ConnectionUtil;
+import Util.InvertedIndex;
+import Util.LruCache;
+import Util.Metrics;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 public class MessageDAO {
-    
+    //query time per DAO method, from borrowing the connection to giving it back
+    private static final Metrics.Timer GET_ALL_MESSAGES_TIMER = Metrics.daoTimer("MessageDAO.getAllMessages");
+    private static final Metrics.Timer GET_MESSAGES_PAGE_TIMER = Metrics.daoTimer("MessageDAO.getMessagesPage");
+    private static final Metrics.Timer STREAM_ALL_MESSAGES_TIMER = Metrics.daoTimer("MessageDAO.streamAllMessages");
+    private static final Metrics.Timer INSERT_MESSAGE_TIMER = Metrics.daoTimer("MessageDAO.insertMessage");
+    private static final Metrics.Timer INSERT_MESSAGES_TIMER = Metrics.daoTimer("MessageDAO.insertMessages");
+    private static final Metrics.Timer GET_MESSAGE_BY_ID_TIMER = Metrics.daoTimer("MessageDAO.getMessageById");
+    private static final Metrics.Timer DELETE_MESSAGE_BY_ID_TIMER = Metrics.daoTimer("MessageDAO.deleteMessageById");
+    private static final Metrics.Timer PATCH_MESSAGE_BY_ID_TIMER = Metrics.daoTimer("MessageDAO.patchMessageById");
+    private static final Metrics.Timer GET_ALL_MESSAGES_BY_ACCOUNT_ID_TIMER = Metrics.daoTimer("MessageDAO.getAllMessagesByAccountId");
+    private static final Metrics.Timer GET_MESSAGES_BY_ACCOUNT_ID_PAGE_TIMER = Metrics.daoTimer("MessageDAO.getMessagesByAccountIdPage");
+    private static final Metrics.Timer GET_MESSAGES_BY_TIME_PAGE_TIMER = Metrics.daoTimer("MessageDAO.getMessagesByTimePage");
+    private static final Metrics.Timer STREAM_MESSAGES_BY_TIME_TIMER = Metrics.daoTimer("MessageDAO.streamMessagesByTime");
+    private static final Metrics.Timer STREAM_MESSAGES_BY_ACCOUNT_ID_AND_TIME_TIMER = Metrics.daoTimer("MessageDAO.streamMessagesByAccountIdAndTime");
+    private static final Metrics.Timer SEARCH_MESSAGES_TIMER = Metrics.daoTimer("MessageDAO.searchMessages");
+    private static final Metrics.Timer GET_MESSAGES_BY_IDS_TIMER = Metrics.daoTimer("MessageDAO.getMessagesByIds");
+
+    //rows fetched per round trip when streaming large result sets
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    //cache of messages by message_id, filled by reads and invalidated by patch/delete below
+    //writes only ever remove, a put after commit could land after a later write's and keep the older text, while a
+    //read that raced a write is turned away by putIfUnchanged once the write has removed the entry
+    private final LruCache<Integer, Message> messageCache = new LruCache<>(Integer.getInteger("cache.messages.maxSize", 10000));
+
+    //full-text index of message_text, loaded from the table in the background and kept in sync by the writes below
+    //a patch unindexes the old text and indexes the new one, so two writes to the same message have to update it in
+    //the order they committed, or the earlier one's terms are left behind
+    //a failed load is logged by streamAllMessages, the index stays unloaded and the next search starts another load
+    private final InvertedIndex searchIndex = new InvertedIndex(sink ->
+        streamAllMessages(message -> sink.accept(message.getMessage_id(), message.getMessage_text())));
+
+    //held by every message write from before its transaction until the index is updated, so index updates happen in
+    //commit order. Writes already queue behind one another on the event_sequence row lock, so this costs no
+    //concurrency, and it is always taken before borrowing a connection, so a writer waiting for one holds no other.
+    //Cache removes and index updates are done after the connection is returned, with the lock still held.
+    static final ReentrantLock WRITE_LOCK = new ReentrantLock();
+
+    //cached Message objects are never handed out directly, callers get a copy they are free to modify
+    private static Message copyOf(Message message) {
+        return new Message(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+    }
+
+    //message cache, exposed for its hit/miss/eviction counters
+    public LruCache<Integer, Message> getMessageCache() {
+        return messageCache;
+    }
+
+    //search index, exposed for its size
+    public InvertedIndex getSearchIndex() {
+        return searchIndex;
+    }
+
     //method to get all messages from message db
     public List<Message> getAllMessages() {
-        //connect to db using ConnectionUtil class
-        Connection connection = ConnectionUtil.getConnection();
-        
         //initialize messages list
         List<Message> messages = new ArrayList<>();
 
-        //try/catch block to execute query and catch any SQLException
-        try {
-            //query to get all messages from message db
-            String sql = "SELECT * FROM message;";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            ResultSet rs = preparedStatement.executeQuery();
+        //query to get all messages from message db
+        String sql = "SELECT * FROM message;";
+
+        //try-with-resources returns the pooled connection (and closes statement/result set) once we're done
+        try (Metrics.Sample sample = GET_ALL_MESSAGES_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql);
+             ResultSet rs = preparedStatement.executeQuery()) {
             //iterate through ResultSet obj rs, initializing new messages per record, then adding obj to messages list
             while(rs.next()){
-                Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"), 
+                Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
                     rs.getString("message_text"), rs.getLong("time_posted_epoch"));
                 messages.add(message);
             }
         } catch(SQLException e) {
-            System.out.println(e.getMessage());
+            Metrics.daoError("MessageDAO.getAllMessages", e);
         }
         //return messages list that now contains all records of messages in message db
         return messages;
     }
-    
+
+    //method to get one page of messages ordered by message_id, starting after the given message_id (keyset pagination)
+    //throws DataAccessException if the query fails, the page is cached by the controller so it can't be left short
+    public List<Message> getMessagesPage(int after_message_id, int limit) {
+        //initialize messages list
+        List<Message> messages = new ArrayList<>();
+
+        //seek past the last message_id the client saw using the primary key index instead of an OFFSET scan
+        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message WHERE message_id > ? ORDER BY message_id LIMIT ?;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_MESSAGES_PAGE_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, after_message_id);
+            preparedStatement.setInt(2, limit);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while(rs.next()){
+                    messages.add(new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                        rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+                }
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("MessageDAO.getMessagesPage", e);
+            throw new DataAccessException("MessageDAO.getMessagesPage", e);
+        }
+        return messages;
+    }
+
+    //method to hand every message in message db to the consumer one row at a time, ordered by message_id,
+    //without ever holding more than one row in memory
+    //throws DataAccessException if the query fails, part way through or before the first row
+    public void streamAllMessages(Consumer<Message> consumer) {
+        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message ORDER BY message_id;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = STREAM_ALL_MESSAGES_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while(rs.next()){
+                    consumer.accept(new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                        rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+                }
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("MessageDAO.streamAllMessages", e);
+            throw new DataAccessException("MessageDAO.streamAllMessages", e);
+        }
+    }
+
     //method to insert new message in message db
     public Message insertMessage(Message message) {
-        //connect to db using ConnectionUtil class
-        Connection connection = ConnectionUtil.getConnection();
+        //hand the insert to the shared batcher, which group-commits it with any other inserts queued at the same time,
+        //and indexes it once committed, under WRITE_LOCK like the other writes
+        try (Metrics.Sample sample = INSERT_MESSAGE_TIMER.start()) {
+            //return null if message wasn't added to message db
+            return MessageInsertBatcher.getInstance().insert(message,
+                inserted -> searchIndex.add(inserted.getMessage_id(), inserted.getMessage_text())).join();
+        } catch(CompletionException e) {
+            Metrics.daoError("MessageDAO.insertMessage", e.getCause());
+            return null;
+        }
+    }
 
-        //try/catch block to insert message and catch any SQLException
-        try {
-            //insert message into message db using preparedStatement's paramaterization
-            String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);";
-            //pk set to auto-increment, but we need generated pk returned
-            PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-
-            //preparedStatement's set methods
-            preparedStatement.setInt(1, message.getPosted_by());
-            preparedStatement.setString(2, message.getMessage_text());
-            preparedStatement.setLong(3, message.getTime_posted_epoch());
-            preparedStatement.executeUpdate();
-
-            ResultSet pkeyRS = preparedStatement.getGeneratedKeys();
-            
-            //check if record was inserted in db, if so extract generated pk and return message containing new pk
-            if(pkeyRS.next()) {
-                int generated_message_id = (int) pkeyRS.getLong(1);
-                return new Message(generated_message_id, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
-            }
-            
+    //method to insert several messages as one JDBC batch in one transaction, without caching them
+    //returns the inserted messages (with generated pk) in the same order, null for any row the db rejected
+    public List<Message> insertMessages(List<Message> messages) {
+        List<Message> inserted;
+        WRITE_LOCK.lock();
+        //try-with-resources to return the connection to the pool and catch any SQLException
+        try (Metrics.Sample sample = INSERT_MESSAGES_TIMER.start()) {
+            try (Connection connection = ConnectionUtil.getConnection()) {
+                inserted = insertMessages(connection, messages);
+            }
+            for(Message message : inserted) {
+                if(message != null) searchIndex.add(message.getMessage_id(), message.getMessage_text());
+            }
+            return inserted;
         } catch(SQLException e) {
-            System.out.println(e.getMessage());
+            Metrics.daoError("MessageDAO.insertMessages", e);
+        } finally {
+            WRITE_LOCK.unlock();
         }
-
-        //return null if message wasn't added to message db
-        return null;
+        //nothing was inserted if the batch as a whole failed
+        return new ArrayList<>(Collections.nCopies(messages.size(), (Message) null));
     }
 
-    //method to check if posted_by user exists in message db
-    public boolean getValidUserPostedBy(int posted_by) {
-        //connect to db using ConnectionUtil class
-        Connection connection = ConnectionUtil.getConnection();
+    //method to insert several messages as one JDBC batch in one transaction on the given connection
+    //returns the inserted messages (with generated pk) in the same order, null for any row the db rejected
+    static List<Message> insertMessages(Connection connection, List<Message> messages) throws SQLException {
+        //insert message into message db using preparedStatement's paramaterization
+        String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);";
 
-        //try/catch block to execute query and catch any SQLException
+        List<Message> inserted = new ArrayList<>(messages.size());
+        connection.setAutoCommit(false);
         try {
-            //query to get all posted_by from message db where posted_by is passed in as parameter
-            String sql = "SELECT posted_by FROM message WHERE posted_by=?;";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-
-            preparedStatement.setInt(1, posted_by);
+            //pk set to auto-increment, but we need generated pks returned
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                for(Message message : messages) {
+                    //preparedStatement's set methods
+                    preparedStatement.setInt(1, message.getPosted_by());
+                    preparedStatement.setString(2, message.getMessage_text());
+                    preparedStatement.setLong(3, message.getTime_posted_epoch());
+                    preparedStatement.addBatch();
+                }
 
-            ResultSet rs = preparedStatement.executeQuery();
+                //H2 carries on past a failing row, so a bad row only fails itself, update counts tell us which ones
+                int[] counts;
+                try {
+                    counts = preparedStatement.executeBatch();
+                } catch(BatchUpdateException e) {
+                    Metrics.daoError("MessageDAO.insertMessages", e);
+                    counts = e.getUpdateCounts();
+                }
 
-            //if any record is returned at all, we know posted_by user exists and we can return true
-            if(rs.next()) return true;
+                //generated keys come back in order, one per row that was inserted
+                try (ResultSet pkeyRS = preparedStatement.getGeneratedKeys()) {
+                    for(int i = 0; i < messages.size(); i++) {
+                        Message message = messages.get(i);
+                        boolean rowInserted = i < counts.length && counts[i] != Statement.EXECUTE_FAILED;
+                        if(rowInserted && pkeyRS.next()) {
+                            int generated_message_id = (int) pkeyRS.getLong(1);
+                            inserted.add(new Message(generated_message_id, message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch()));
+                        } else {
+                            inserted.add(null);
+                        }
+                    }
+                }
+            }
+            //logged in the same transaction, so the events commit (or roll back) with the rows
+            List<ChangeEvent> events = new ArrayList<>(inserted.size());
+            for(Message message : inserted) {
+                if(message != null) events.add(EventLogDAO.messageEvent(EventLogDAO.CREATED, message));
+            }
+            EventLogDAO.append(connection, events);
+            connection.commit();
         } catch(SQLException e) {
-            System.out.println(e.getMessage());
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
         }
-        //return false if no records found with posted_by int
-        return false;
+        return inserted;
     }
 
     //method to get message by message_id in message db
     public Message getMessageById(int message_id) {
-        //connect to db using ConnectionUtil class
-        Connection connection = ConnectionUtil.getConnection();
+        //serve hot messages straight from the cache
+        Message cached = messageCache.get(message_id);
+        if(cached != null) return copyOf(cached);
+        //remember the cache generation so we don't cache a row a concurrent write has already replaced
+        long generation = messageCache.generation();
 
-        //try/catch block to execute query and catch any SQLException
-        try {
-            //query to get message from message db where message_id is passed in as parameter
-            String sql = "SELECT * FROM message WHERE message_id=?;";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        //query to get message from message db where message_id is passed in as parameter
+        String sql = "SELECT * FROM message WHERE message_id=?;";
 
-            preparedStatement.setInt(1, message_id);
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_MESSAGE_BY_ID_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
-            ResultSet rs = preparedStatement.executeQuery();
+            preparedStatement.setInt(1, message_id);
 
-            //record returned will be message with passed in message_id, return complete Message
-            if(rs.next()){
-                return new Message(rs.getInt("message_id"), rs.getInt("posted_by"), 
-                    rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                //record returned will be message with passed in message_id, return complete Message
+                if(rs.next()){
+                    Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                        rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+                    messageCache.putIfUnchanged(message_id, copyOf(message), generation);
+                    return message;
+                }
             }
         } catch(SQLException e) {
-            System.out.println(e.getMessage());
+            Metrics.daoError("MessageDAO.getMessageById", e);
         }
         //return null if no message found with corresponding message_id
         return null;
     }
 
-    //method to delete message by message_id in message db
-    public boolean deleteMessageById(int message_id) {
-        //connect to db using ConnectionUtil class
-        Connection connection = ConnectionUtil.getConnection();
+    //method to delete message by message_id in message db and return the deleted message
+    public Message deleteMessageById(int message_id) {
+        //OLD TABLE returns the rows as they were before the DELETE, so deleting and reading back the deleted
+        //message is a single atomic statement
+        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM OLD TABLE (DELETE FROM message WHERE message_id=?);";
 
-        //try/catch block to execute delete and catch any SQLException
-        try {
-            //delete message from message db with message_id that equals value passed in as parameter
-            String sql = "DELETE FROM message WHERE message_id=?;";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        WRITE_LOCK.lock();
+        //try-with-resources to execute delete, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = DELETE_MESSAGE_BY_ID_TIMER.start()) {
+            Message message = null;
+            try (Connection connection = ConnectionUtil.getConnection()) {
+                //the delete and its event commit together
+                connection.setAutoCommit(false);
+                try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                    preparedStatement.setInt(1, message_id);
 
-            preparedStatement.setInt(1, message_id);
+                    try (ResultSet rs = preparedStatement.executeQuery()) {
+                        //record returned is the message we just deleted
+                        if(rs.next()) {
+                            message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                                rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+                        }
+                    }
+                    if(message != null) EventLogDAO.append(connection, List.of(EventLogDAO.messageEvent(EventLogDAO.DELETED, message)));
+                    connection.commit();
+                } catch(SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
 
-            return preparedStatement.executeUpdate() > 0;
+            messageCache.remove(message_id);
+            //its text says which terms to unindex
+            if(message != null) searchIndex.remove(message_id, message.getMessage_text());
+            return message;
         } catch(SQLException e) {
-            System.out.println(e.getMessage());
+            Metrics.daoError("MessageDAO.deleteMessageById", e);
+        } finally {
+            WRITE_LOCK.unlock();
         }
-        //return false if no message found with corresponding message_id
-        return false;
+        //return null if no message found with corresponding message_id
+        return null;
     }
 
-    //method to update message by message_id in message db
-    public boolean patchMessageById(String message_text, int message_id) {
-        //connect to db using ConnectionUtil class
-        Connection connection = ConnectionUtil.getConnection();
+    //method to update message by message_id in message db and return the updated message
+    public Message patchMessageById(String message_text, int message_id) {
+        //OLD TABLE returns the rows as they were before the UPDATE, so updating and reading back the full message
+        //is a single atomic statement, and the old text tells the search index which terms to drop
+        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM OLD TABLE (UPDATE message SET message_text=? WHERE message_id=?);";
 
-        //try/catch block to execute query and catch any SQLException
-        try {
-            //update message from message db with message_id that equals value passed in as parameter
-            String sql = "UPDATE message SET message_text=? WHERE message_id=?;";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        WRITE_LOCK.lock();
+        //try-with-resources to execute update, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = PATCH_MESSAGE_BY_ID_TIMER.start()) {
+            Message message = null;
+            String old_message_text = null;
+            try (Connection connection = ConnectionUtil.getConnection()) {
+                //the update and its event commit together
+                connection.setAutoCommit(false);
+                try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                    preparedStatement.setString(1, message_text);
+                    preparedStatement.setInt(2, message_id);
 
-            preparedStatement.setString(1, message_text);
-            preparedStatement.setInt(2, message_id);
+                    try (ResultSet rs = preparedStatement.executeQuery()) {
+                        //record returned is the message before the update, only its text changed
+                        if(rs.next()) {
+                            old_message_text = rs.getString("message_text");
+                            message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                                message_text, rs.getLong("time_posted_epoch"));
+                        }
+                    }
+                    if(message != null) EventLogDAO.append(connection, List.of(EventLogDAO.messageEvent(EventLogDAO.UPDATED, message)));
+                    connection.commit();
+                } catch(SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
 
-            return preparedStatement.executeUpdate() > 0;
+            messageCache.remove(message_id);
+            if(message == null) return null;
+            //keep the search index in step with the new text
+            searchIndex.remove(message_id, old_message_text);
+            searchIndex.add(message_id, message_text);
+            return message;
         } catch(SQLException e) {
-            System.out.println(e.getMessage());
+            Metrics.daoError("MessageDAO.patchMessageById", e);
+        } finally {
+            WRITE_LOCK.unlock();
         }
-        //return false if message failed to patch
-        return false;
+        //return null if no message found with corresponding message_id
+        return null;
     }
 
-    //method to get all messages by account_id from message db
+    //method to get all messages by account_id from message db, oldest first
     public List<Message> getAllMessagesByAccountId(int account_id) {
-        //connect to db using ConnectionUtil class
-        Connection connection = ConnectionUtil.getConnection();
-        
         //initialize messages list
         List<Message> messages = new ArrayList<>();
 
-        //try/catch block to execute query and catch any SQLException
-        try {
-            //query to get all messages from message db by account_id using inner join
-            String sql = "SELECT * FROM message JOIN account ON message.posted_by = account.account_id WHERE account.account_id=?;";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        //query posted_by directly (no join with account needed) so it's answered from message_posted_by_time_idx
+        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message WHERE posted_by=? ORDER BY time_posted_epoch, message_id;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_ALL_MESSAGES_BY_ACCOUNT_ID_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setInt(1, account_id);
 
-            ResultSet rs = preparedStatement.executeQuery();
-            //iterate through ResultSet obj rs, initializing new messages per record, then adding obj to messages list
-            while(rs.next()){
-                Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"), 
-                    rs.getString("message_text"), rs.getLong("time_posted_epoch"));
-                messages.add(message);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                //iterate through ResultSet obj rs, initializing new messages per record, then adding obj to messages list
+                while(rs.next()){
+                    Message message = new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                        rs.getString("message_text"), rs.getLong("time_posted_epoch"));
+                    messages.add(message);
+                }
             }
         } catch(SQLException e) {
-            System.out.println(e.getMessage());
+            Metrics.daoError("MessageDAO.getAllMessagesByAccountId", e);
         }
         //return messages list that now contains all records of messages in message db
         return messages;
     }
+
+    //method to get one page of an account's messages posted in [since, until) ordered by (time_posted_epoch, message_id),
+    //starting after the given position (keyset pagination), pass null for after_time to start from since
+    //throws DataAccessException if the query fails, rather than answer with a page that looks like the last one
+    public List<Message> getMessagesByAccountIdPage(int account_id, long since, long until, Long after_time, int after_message_id, int limit) {
+        //initialize messages list
+        List<Message> messages = new ArrayList<>();
+
+        //time_posted_epoch >= ? lets H2 seek into message_posted_by_time_idx, the OR then skips rows already seen
+        //with the same time_posted_epoch
+        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message " +
+            "WHERE posted_by=? AND time_posted_epoch >= ? AND time_posted_epoch < ? AND (time_posted_epoch > ? OR message_id > ?) " +
+            "ORDER BY time_posted_epoch, message_id LIMIT ?;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_MESSAGES_BY_ACCOUNT_ID_PAGE_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, account_id);
+            setTimeRange(preparedStatement, 2, since, until, after_time, after_message_id);
+            preparedStatement.setInt(6, limit);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while(rs.next()){
+                    messages.add(new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                        rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+                }
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("MessageDAO.getMessagesByAccountIdPage", e);
+            throw new DataAccessException("MessageDAO.getMessagesByAccountIdPage", e);
+        }
+        return messages;
+    }
+
+    //method to search message_text for messages containing every term of query, best match first
+    //returns the message_ids of the limit matches after skipping offset, and how many matched in all
+    public InvertedIndex.Hits searchMessages(String query, int offset, int limit) {
+        //answered from the in-memory index, throws InvertedIndex.NotLoadedException while it is still loading
+        try (Metrics.Sample sample = SEARCH_MESSAGES_TIMER.start()) {
+            return searchIndex.search(query, offset, limit);
+        }
+    }
+
+    //method to get the messages with the given message_ids, in the order the ids are given
+    //ids with no message (deleted since they were looked up) are left out
+    public List<Message> getMessagesByIds(int[] message_ids) {
+        List<Message> messages = new ArrayList<>(message_ids.length);
+        if(message_ids.length == 0) return messages;
+
+        //one primary key lookup per id, in a single statement whatever the number of ids
+        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message WHERE message_id = ANY(?);";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_MESSAGES_BY_IDS_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            Integer[] ids = new Integer[message_ids.length];
+            for(int i = 0; i < ids.length; i++) ids[i] = message_ids[i];
+            preparedStatement.setArray(1, connection.createArrayOf("INTEGER", ids));
+
+            Map<Integer, Message> byId = new HashMap<>();
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while(rs.next()){
+                    byId.put(rs.getInt("message_id"), new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                        rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+                }
+            }
+            for(int message_id : message_ids) {
+                Message message = byId.get(message_id);
+                if(message != null) messages.add(message);
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("MessageDAO.getMessagesByIds", e);
+        }
+        return messages;
+    }
+
+    //sets the four parameters of "time_posted_epoch >= ? AND time_posted_epoch < ? AND (time_posted_epoch > ? OR
+    //message_id > ?)" starting at index, seeking to since or the cursor, whichever is later
+    private static void setTimeRange(PreparedStatement preparedStatement, int index, long since, long until,
+                                     Long after_time, int after_message_id) throws SQLException {
+        preparedStatement.setLong(index, after_time == null ? since : Math.max(since, after_time));
+        preparedStatement.setLong(index + 1, until);
+        preparedStatement.setLong(index + 2, after_time == null ? Long.MIN_VALUE : after_time);
+        preparedStatement.setInt(index + 3, after_time == null ? Integer.MIN_VALUE : after_message_id);
+    }
+
+    //method to get one page of the messages posted in [since, until) by any account, ordered by
+    //(time_posted_epoch, message_id), starting after the given position (keyset pagination), pass null for
+    //after_time to start from since
+    //throws DataAccessException if the query fails, rather than answer with a page that looks like the last one
+    public List<Message> getMessagesByTimePage(long since, long until, Long after_time, int after_message_id, int limit) {
+        //initialize messages list
+        List<Message> messages = new ArrayList<>();
+
+        //seeks into message_time_idx at since (or the cursor) and reads on in index order, so only the rows returned
+        //are touched however large the table is
+        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message " +
+            "WHERE time_posted_epoch >= ? AND time_posted_epoch < ? AND (time_posted_epoch > ? OR message_id > ?) " +
+            "ORDER BY time_posted_epoch, message_id LIMIT ?;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = GET_MESSAGES_BY_TIME_PAGE_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            setTimeRange(preparedStatement, 1, since, until, after_time, after_message_id);
+            preparedStatement.setInt(5, limit);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while(rs.next()){
+                    messages.add(new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                        rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+                }
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("MessageDAO.getMessagesByTimePage", e);
+            throw new DataAccessException("MessageDAO.getMessagesByTimePage", e);
+        }
+        return messages;
+    }
+
+    //method to hand every message posted in [since, until) by any account to the consumer one row at a time,
+    //ordered by (time_posted_epoch, message_id)
+    //throws DataAccessException if the query fails, part way through or before the first row
+    public void streamMessagesByTime(long since, long until, Consumer<Message> consumer) {
+        //read in message_time_idx order, so no sort has to hold the whole range
+        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message " +
+            "WHERE time_posted_epoch >= ? AND time_posted_epoch < ? ORDER BY time_posted_epoch, message_id;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = STREAM_MESSAGES_BY_TIME_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, since);
+            preparedStatement.setLong(2, until);
+            preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while(rs.next()){
+                    consumer.accept(new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                        rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+                }
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("MessageDAO.streamMessagesByTime", e);
+            throw new DataAccessException("MessageDAO.streamMessagesByTime", e);
+        }
+    }
+
+    //method to hand every message account_id posted in [since, until) to the consumer one row at a time,
+    //ordered by (time_posted_epoch, message_id)
+    //throws DataAccessException if the query fails, part way through or before the first row
+    public void streamMessagesByAccountIdAndTime(int account_id, long since, long until, Consumer<Message> consumer) {
+        //read in message_posted_by_time_idx order, so no sort has to hold the whole range
+        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message " +
+            "WHERE posted_by=? AND time_posted_epoch >= ? AND time_posted_epoch < ? ORDER BY time_posted_epoch, message_id;";
+
+        //try-with-resources to execute query, return the connection to the pool, and catch any SQLException
+        try (Metrics.Sample sample = STREAM_MESSAGES_BY_ACCOUNT_ID_AND_TIME_TIMER.start();
+             Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, account_id);
+            preparedStatement.setLong(2, since);
+            preparedStatement.setLong(3, until);
+            preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while(rs.next()){
+                    consumer.accept(new Message(rs.getInt("message_id"), rs.getInt("posted_by"),
+                        rs.getString("message_text"), rs.getLong("time_posted_epoch")));
+                }
+            }
+        } catch(SQLException e) {
+            Metrics.daoError("MessageDAO.streamMessagesByAccountIdAndTime", e);
+            throw new DataAccessException("MessageDAO.streamMessagesByAccountIdAndTime", e);
+        }
+    }
 }
@@ -0,0 +1,144 @@
+package DAO;
+
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.Metrics;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Group commit for message inserts. Callers hand their message to a single writer thread and wait for it. The writer
+ * takes every insert that is queued (up to maxBatchSize), writes them as one JDBC batch in one transaction and
+ * completes each caller with its generated message_id, so under concurrent POST /messages the number of commits grows
+ * with the number of batches instead of the number of messages.
+ *
+ * With windowMicros at 0 (the default) the writer never waits for more work, it batches whatever queued up while the
+ * previous batch was being written, so a lone insert pays no extra latency. A positive window makes the writer hold a
+ * batch open that long to collect more rows.
+ */
+class MessageInsertBatcher {
+    private static final Metrics.Timer WRITE_TIMER = Metrics.daoTimer("MessageInsertBatcher.write");
+    private static final Metrics.Counter BATCHED_ROWS = Metrics.counter("message_insert_batch_rows_total",
+            "Messages written by the insert batcher");
+    private static final Metrics.Counter BATCHES = Metrics.counter("message_insert_batches_total",
+            "Batches written by the insert batcher");
+
+    //one writer for the whole application, batching only helps if every insert goes through the same queue
+    private static final MessageInsertBatcher INSTANCE = new MessageInsertBatcher(
+            Integer.getInteger("db.insertBatch.maxSize", 64), Long.getLong("db.insertBatch.windowMicros", 0));
+
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final BlockingQueue<PendingInsert> queue = new LinkedBlockingQueue<>();
+
+    static MessageInsertBatcher getInstance() {
+        return INSTANCE;
+    }
+
+    private MessageInsertBatcher(int maxBatchSize, long windowMicros) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        Thread writer = new Thread(this::writeLoop, "message-insert-batcher");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues the message for the next batch.
+     * @param afterCommit called with the inserted message once its batch has committed, before the future completes,
+     *                    in commit order with the other message writes (see MessageDAO.WRITE_LOCK)
+     * @return a future completed with the inserted message (including its message_id), or null if it wasn't inserted
+     */
+    CompletableFuture<Message> insert(Message message, Consumer<Message> afterCommit) {
+        PendingInsert pending = new PendingInsert(message, afterCommit);
+        queue.add(pending);
+        return pending.result;
+    }
+
+    private void writeLoop() {
+        List<PendingInsert> batch = new ArrayList<>(maxBatchSize);
+        while(true) {
+            try {
+                batch.add(queue.take());
+                collect(batch);
+                write(batch);
+            } catch(InterruptedException e) {
+                return;
+            } catch(RuntimeException e) {
+                //never let the writer die, fail whatever of this batch wasn't completed and carry on
+                for(PendingInsert pending : batch) pending.result.completeExceptionally(e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    //add whatever else is waiting, holding the batch open for windowNanos if configured
+    private void collect(List<PendingInsert> batch) throws InterruptedException {
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        if(windowNanos <= 0) return;
+        long deadline = System.nanoTime() + windowNanos;
+        while(batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0) return;
+            PendingInsert next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if(next == null) return;
+            batch.add(next);
+            queue.drainTo(batch, maxBatchSize - batch.size());
+        }
+    }
+
+    private void write(List<PendingInsert> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for(PendingInsert pending : batch) messages.add(pending.message);
+
+        BATCHES.increment();
+        BATCHED_ROWS.add(batch.size());
+        List<Message> inserted;
+        MessageDAO.WRITE_LOCK.lock();
+        try {
+            try (Metrics.Sample sample = WRITE_TIMER.start();
+                 Connection connection = ConnectionUtil.getConnection()) {
+                inserted = MessageDAO.insertMessages(connection, messages);
+            } catch(SQLException e) {
+                Metrics.daoError("MessageInsertBatcher.write", e);
+                for(PendingInsert pending : batch) pending.result.complete(null);
+                return;
+            }
+            for(int i = 0; i < batch.size(); i++) {
+                if(inserted.get(i) != null) afterCommit(batch.get(i), inserted.get(i));
+            }
+        } finally {
+            MessageDAO.WRITE_LOCK.unlock();
+        }
+        for(int i = 0; i < batch.size(); i++) batch.get(i).result.complete(inserted.get(i));
+    }
+
+    //the row is committed whatever a listener does, so a failing listener is logged and the caller still gets its message
+    private static void afterCommit(PendingInsert pending, Message inserted) {
+        try {
+            pending.afterCommit.accept(inserted);
+        } catch(RuntimeException e) {
+            Metrics.daoError("MessageInsertBatcher.afterCommit", e);
+        }
+    }
+
+    private static class PendingInsert {
+        final Message message;
+        final Consumer<Message> afterCommit;
+        final CompletableFuture<Message> result = new CompletableFuture<>();
+
+        PendingInsert(Message message, Consumer<Message> afterCommit) {
+            this.message = message;
+            this.afterCommit = afterCommit;
+        }
+    }
+}
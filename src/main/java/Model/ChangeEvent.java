@@ -0,0 +1,145 @@
+package Model;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Objects;
+
+/**
+ * This is a class that models one entry of the event log: a message or account that was created, updated or deleted.
+ */
+public class ChangeEvent {
+    /**
+     * The position of this event in the log, assigned by the database when it is appended. Sequence ids are consecutive
+     * and follow the order the changes were committed in.
+     */
+    public long sequence_id;
+    /**
+     * What was changed, "message" or "account".
+     */
+    public String entity;
+    /**
+     * The message_id or account_id of what was changed.
+     */
+    public int entity_id;
+    /**
+     * "created", "updated" or "deleted".
+     */
+    public String operation;
+    /**
+     * The entity as JSON after the change, or as it was before it for a delete. Accounts never include their password.
+     * It is written out as a nested object rather than a string.
+     */
+    public String payload;
+    /**
+     * The epoch time in milliseconds the change was appended to the log.
+     */
+    public long recorded_at;
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public ChangeEvent(){
+    }
+    /**
+     * When appending an event, the sequence_id and recorded_at are filled in by the log.
+     * @param entity
+     * @param entity_id
+     * @param operation
+     * @param payload
+     */
+    public ChangeEvent(String entity, int entity_id, String operation, String payload) {
+        this.entity = entity;
+        this.entity_id = entity_id;
+        this.operation = operation;
+        this.payload = payload;
+    }
+    /**
+     * When reading events back from the log, all fields will be needed.
+     * @param sequence_id
+     * @param entity
+     * @param entity_id
+     * @param operation
+     * @param payload
+     * @param recorded_at
+     */
+    public ChangeEvent(long sequence_id, String entity, int entity_id, String operation, String payload, long recorded_at) {
+        this.sequence_id = sequence_id;
+        this.entity = entity;
+        this.entity_id = entity_id;
+        this.operation = operation;
+        this.payload = payload;
+        this.recorded_at = recorded_at;
+    }
+    public long getSequence_id() {
+        return sequence_id;
+    }
+    public void setSequence_id(long sequence_id) {
+        this.sequence_id = sequence_id;
+    }
+    public String getEntity() {
+        return entity;
+    }
+    public void setEntity(String entity) {
+        this.entity = entity;
+    }
+    public int getEntity_id() {
+        return entity_id;
+    }
+    public void setEntity_id(int entity_id) {
+        this.entity_id = entity_id;
+    }
+    public String getOperation() {
+        return operation;
+    }
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+    @JsonRawValue
+    public String getPayload() {
+        return payload;
+    }
+    /**
+     * Reading an event back from JSON, the nested payload object is kept as its JSON text.
+     * @param payload
+     */
+    public void setPayload(JsonNode payload) {
+        this.payload = payload == null ? null : payload.toString();
+    }
+    public long getRecorded_at() {
+        return recorded_at;
+    }
+    public void setRecorded_at(long recorded_at) {
+        this.recorded_at = recorded_at;
+    }
+    /**
+     * Overriding the default equals() method adds functionality to tell when two objects are identical, allowing
+     * Assert.assertEquals and List.contains to function.
+     * @param o the other object.
+     * @return true if o is equal to this object.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ChangeEvent event = (ChangeEvent) o;
+        return sequence_id == event.sequence_id && entity_id == event.entity_id && recorded_at == event.recorded_at
+                && Objects.equals(entity, event.entity) && Objects.equals(operation, event.operation)
+                && Objects.equals(payload, event.payload);
+    }
+    /**
+     * Overriding the default toString() method allows for easy debugging.
+     * @return a String representation of this class.
+     */
+    @Override
+    public String toString() {
+        return "ChangeEvent{" +
+                "sequence_id=" + sequence_id +
+                ", entity='" + entity + '\'' +
+                ", entity_id=" + entity_id +
+                ", operation='" + operation + '\'' +
+                ", payload=" + payload +
+                ", recorded_at=" + recorded_at +
+                '}';
+    }
+}
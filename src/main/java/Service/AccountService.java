@@ -2,33 +2,187 @@ package Service;
 
 import Model.Account;
 import DAO.AccountDAO;
+import Util.CpuExecutor;
+import Util.DbExecutor;
+import Util.LruCache;
+import Util.PasswordHasher;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 public class AccountService {
     private AccountDAO accountDAO;
+    private PasswordHasher passwordHasher;
+
+    //recently verified logins by username, so repeated logins skip both the query and the slow password hash
+    private final LruCache<String, VerifiedLogin> loginCache =
+        new LruCache<>(Integer.getInteger("login.cache.maxSize", 10000));
+    private final long loginCacheTtlNanos = TimeUnit.SECONDS.toNanos(Long.getLong("login.cache.ttlSeconds", 300));
+    //random per-process key for digesting credentials, so the cache never holds a password or a reusable hash of one
+    private final byte[] credentialKey = new byte[32];
+    private final LongAdder loginCacheHits = new LongAdder();
+    private final LongAdder loginCacheMisses = new LongAdder();
 
     //constructor initializing accountDAO
     public AccountService(){
         accountDAO = new AccountDAO();
+        passwordHasher = new PasswordHasher();
+        new SecureRandom().nextBytes(credentialKey);
     }
 
     //service to process new User
     public Account createAccount(Account account) {
-        //new user valid if username is not blank (no whitespace), password is at least 4 char's long, and Account with that username doesnt already exist
-        if(account.getUsername().trim().length() > 0 && account.getPassword().length() >= 4 && getValidUsername(account)) {
-            return accountDAO.createAccount(account);
+        //getValidUsername rejects known duplicates from memory, the insert's unique constraint settles any race
+        if(isWellFormed(account) && getValidUsername(account)) {
+            //only a salted hash of the password is stored
+            return insertAccount(account, passwordHasher.hash(account.getPassword()));
         }
         //if invalid account return null
         return null;
     }
 
-    //service to check if user exists in account db
+    //new user valid if username is not blank (no whitespace) and password is at least 4 char's long
+    private static boolean isWellFormed(Account account) {
+        return account.getUsername().trim().length() > 0 && account.getPassword().length() >= 4;
+    }
+
+    //stores the account with its password hash, null if the username was taken
+    private Account insertAccount(Account account, String hash) {
+        Account created = accountDAO.createAccount(new Account(account.getUsername(), hash));
+        //respond with the account as the user submitted it, never the stored hash
+        return created == null ? null : new Account(created.getAccount_id(), account.getUsername(), account.getPassword());
+    }
+
+    //service to check if username is free, from memory for usernames that are definitely free or known taken
     public boolean getValidUsername(Account account) {
         return accountDAO.getValidUsername(account.getUsername());
     }
 
+    //service to check if an account with this account_id exists, without a query for accounts we already know
+    public boolean accountExists(int account_id) {
+        return accountDAO.accountExists(account_id);
+    }
+
     //service to process User logins
     public Account loginAccount(Account account) {
-        //check if username and password exist in account db, if yes return Account including account_id
-        return accountDAO.getValidAccount(account.getUsername(), account.getPassword());
+        String username = account.getUsername();
+        String password = account.getPassword();
+        if(username == null || password == null) return null;
+
+        byte[] digest = credentialDigest(username, password);
+        Account cached = cachedLogin(username, password, digest);
+        if(cached != null) return cached;
+
+        //check if username exists in account db and the password matches its stored hash
+        Account stored = accountDAO.getAccountByUsername(username);
+        Account verified = verifyPassword(stored, password);
+        return verified == null ? null : finishLogin(stored, verified, password, digest);
+    }
+
+    //a matching, unexpired entry means these exact credentials were verified recently, null if there is none
+    private Account cachedLogin(String username, String password, byte[] digest) {
+        VerifiedLogin cached = loginCache.get(username);
+        if(cached != null && System.nanoTime() < cached.expiresAtNanos && MessageDigest.isEqual(cached.digest, digest)) {
+            loginCacheHits.increment();
+            return new Account(cached.account_id, username, password);
+        }
+        loginCacheMisses.increment();
+        return null;
+    }
+
+    //checks password against stored's hash, null if it doesn't match, else stored, or a copy holding a new hash
+    //if stored's is plaintext or was made with a lower cost and should be upgraded now that we know the password
+    private Account verifyPassword(Account stored, String password) {
+        if(stored == null || !passwordHasher.verify(password, stored.getPassword())) return null;
+        if(!passwordHasher.needsRehash(stored.getPassword())) return stored;
+        return new Account(stored.getAccount_id(), stored.getUsername(), passwordHasher.hash(password));
+    }
+
+    //stores any upgraded hash and caches the login, returns Account including account_id
+    private Account finishLogin(Account stored, Account verified, String password, byte[] digest) {
+        if(verified != stored) accountDAO.updatePassword(stored.getAccount_id(), verified.getPassword());
+        loginCache.put(stored.getUsername(), new VerifiedLogin(stored.getAccount_id(), digest, System.nanoTime() + loginCacheTtlNanos));
+        return new Account(stored.getAccount_id(), stored.getUsername(), password);
+    }
+
+    //async variants of createAccount and loginAccount, the same steps with the queries run on the bounded DbExecutor
+    //and the password hashing on the CpuExecutor, so a hash never holds one of the few db threads
+    //the future fails with RejectedExecutionException when either executor's queue is full
+    public CompletableFuture<Account> createAccountAsync(Account account) {
+        if(!isWellFormed(account)) return CompletableFuture.completedFuture(null);
+        return DbExecutor.supplyAsync(() -> getValidUsername(account))
+            .thenCompose(valid -> !valid ? CompletableFuture.<String>completedFuture(null)
+                : CpuExecutor.supplyAsync(() -> passwordHasher.hash(account.getPassword())))
+            .thenCompose(hash -> hash == null ? CompletableFuture.<Account>completedFuture(null)
+                : DbExecutor.supplyAsync(() -> insertAccount(account, hash)));
+    }
+
+    public CompletableFuture<Account> loginAccountAsync(Account account) {
+        String username = account.getUsername();
+        String password = account.getPassword();
+        if(username == null || password == null) return CompletableFuture.completedFuture(null);
+
+        //a cache hit costs an HMAC, cheap enough to answer on the request thread
+        byte[] digest = credentialDigest(username, password);
+        Account cached = cachedLogin(username, password, digest);
+        if(cached != null) return CompletableFuture.completedFuture(cached);
+
+        return DbExecutor.supplyAsync(() -> accountDAO.getAccountByUsername(username))
+            .thenCompose(stored -> stored == null ? CompletableFuture.<Account>completedFuture(null)
+                : CpuExecutor.supplyAsync(() -> verifyPassword(stored, password))
+                    .thenCompose(verified -> {
+                        if(verified == null) return CompletableFuture.completedFuture(null);
+                        //only an upgraded hash needs storing, otherwise finish on the cpu thread
+                        if(verified == stored) return CompletableFuture.completedFuture(finishLogin(stored, verified, password, digest));
+                        return DbExecutor.supplyAsync(() -> finishLogin(stored, verified, password, digest));
+                    }));
+    }
+
+    //HMAC-SHA256 of the credentials under this process's random key, cheap compared to the password hash
+    private byte[] credentialDigest(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(credentialKey, "HmacSHA256"));
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch(GeneralSecurityException e) {
+            //HmacSHA256 is required of every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //password hasher, exposed for its hash count and time
+    public PasswordHasher getPasswordHasher() {
+        return passwordHasher;
+    }
+
+    public long getLoginCacheHits() {
+        return loginCacheHits.sum();
+    }
+
+    public long getLoginCacheMisses() {
+        return loginCacheMisses.sum();
+    }
+
+    //a successful login: the account_id, the digest of the credentials used, and when to stop trusting it
+    private static class VerifiedLogin {
+        final int account_id;
+        final byte[] digest;
+        final long expiresAtNanos;
+
+        VerifiedLogin(int account_id, byte[] digest, long expiresAtNanos) {
+            this.account_id = account_id;
+            this.digest = digest;
+            this.expiresAtNanos = expiresAtNanos;
+        }
     }
 }
@@ -0,0 +1,36 @@
+package Service;
+
+import DAO.EventLogDAO;
+import Model.ChangeEvent;
+import Util.DbExecutor;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+//read side of the event log, which the DAO writes append to as they commit
+public class EventLogService {
+    private final EventLogDAO eventLogDAO;
+
+    //no-args constructor for creating a new EventLogService with a new EventLogDAO
+    public EventLogService() {
+        this.eventLogDAO = new EventLogDAO();
+    }
+
+    //service method to get up to limit events after after_sequence_id, oldest first, only those about entity
+    //("message" or "account") if it isn't null, limit is clamped to MAX_PAGE_SIZE
+    public List<ChangeEvent> getEventsAfter(long after_sequence_id, String entity, int limit) {
+        return eventLogDAO.getEventsAfter(after_sequence_id, entity,
+            Math.max(1, Math.min(limit, MessageService.MAX_PAGE_SIZE)));
+    }
+
+    //service method to get the sequence_id of the last event committed, 0 if there are none
+    public long getLastSequenceId() {
+        return eventLogDAO.getLastSequenceId();
+    }
+
+    //async variant: the same work run on the bounded DbExecutor, so the calling request thread is not blocked on JDBC
+
+    public CompletableFuture<List<ChangeEvent>> getEventsAfterAsync(long after_sequence_id, String entity, int limit) {
+        return DbExecutor.supplyAsync(() -> getEventsAfter(after_sequence_id, entity, limit));
+    }
+}
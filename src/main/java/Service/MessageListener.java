@@ -0,0 +1,18 @@
+package Service;
+
+import Model.Message;
+
+//notified by MessageService after each message write has committed, on the thread that made the write
+public interface MessageListener {
+    //a message was inserted, on its own or as part of a bulk insert
+    default void messageAdded(Message message) {
+    }
+
+    //a message's text was changed, message is as it is now
+    default void messageUpdated(Message message) {
+    }
+
+    //a message was deleted, message is as it was
+    default void messageDeleted(Message message) {
+    }
+}
@@ -2,15 +2,64 @@ package Service;
 
 import Model.Message;
 import DAO.MessageDAO;
+import Util.DbExecutor;
+import Util.InvertedIndex;
+import Util.LruCache;
+import Util.VersionTracker;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 public class MessageService {
+    //page size used when a client asks for a page without a limit, and the largest page a client can ask for
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+    //rows written per JDBC batch by bulk inserts
+    public static final int BULK_BATCH_SIZE = Integer.getInteger("bulk.batchSize", 1000);
+    //deepest a search can be paged into, ranking a match further down keeps that many candidates in memory
+    public static final int MAX_SEARCH_OFFSET = 10000;
+
     private MessageDAO messageDAO;
+    private AccountService accountService;
+    //table and per-account versions, bumped after every successful write so readers can tell nothing changed
+    private final VersionTracker versions = new VersionTracker();
+    //told about every successful write, after versions is bumped
+    private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
 
     // constructor initializing messageDAO
     public MessageService(){
+        this(new AccountService());
+    }
+
+    // constructor sharing an existing AccountService, so accounts it creates are immediately valid posters
+    public MessageService(AccountService accountService){
         messageDAO = new MessageDAO();
+        this.accountService = accountService;
+    }
+
+    //message cache, exposed for its hit/miss/eviction counters
+    public LruCache<Integer, Message> getMessageCache() {
+        return messageDAO.getMessageCache();
+    }
+
+    //search index, exposed for its size
+    public InvertedIndex getSearchIndex() {
+        return messageDAO.getSearchIndex();
+    }
+
+    //registers a listener to be told about every message written through this service from now on
+    public void addListener(MessageListener listener) {
+        listeners.add(listener);
+    }
+
+    //message versions, for ETag/Last-Modified on reads
+    public VersionTracker getVersions() {
+        return versions;
     }
 
     //service method to get all messages
@@ -18,19 +67,95 @@ public class MessageService {
         return messageDAO.getAllMessages();
     }
 
+    //service method to get a page of messages after the given message_id, clamping limit to MAX_PAGE_SIZE
+    public List<Message> getMessagesPage(int after_message_id, int limit) {
+        return messageDAO.getMessagesPage(after_message_id, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+    }
+
+    //service method to stream every message to the consumer in message_id order
+    public void streamAllMessages(Consumer<Message> consumer) {
+        messageDAO.streamAllMessages(consumer);
+    }
+
     //service method to add message if valid
     public Message addMessage(Message message) {
         //message valid if message_text not blank(not empty or just whitespace), 255 char's or less, and posted_by refers to real user
-        if(message.getMessage_text().trim().length() > 0 && message.getMessage_text().length() <= 255 && getValidUserPostedBy(message)) {
-            return messageDAO.insertMessage(message);
+        if(isValidMessageText(message.getMessage_text()) && getValidUserPostedBy(message)) {
+            Message inserted = messageDAO.insertMessage(message);
+            if(inserted != null) {
+                versions.changed(inserted.getPosted_by());
+                for(MessageListener listener : listeners) listener.messageAdded(inserted);
+            }
+            return inserted;
         }
         //if invalid message return null
         return null;
     }
 
-    //service method to validate posted_by exists in message db
+    //message_text valid if not blank (not empty or just whitespace) and 255 char's or less
+    private boolean isValidMessageText(String message_text) {
+        return message_text != null && message_text.trim().length() > 0 && message_text.length() <= 255;
+    }
+
+    //service method to start a bulk insert, messages are validated like addMessage and written BULK_BATCH_SIZE at a time
+    public BulkInsert startBulkInsert() {
+        return new BulkInsert();
+    }
+
+    //streaming bulk insert: add() messages one at a time then finish(), only one batch is ever held in memory
+    public class BulkInsert {
+        private final List<Message> batch = new ArrayList<>(BULK_BATCH_SIZE);
+        //posted_by validity per distinct account in this import, so each account is checked once
+        private final Map<Integer, Boolean> validPosters = new HashMap<>();
+        private long inserted;
+        private long rejected;
+
+        private BulkInsert() {
+        }
+
+        //validate the message and queue it for the current batch, writing the batch once it is full
+        public void add(Message message) {
+            boolean valid = message != null && isValidMessageText(message.getMessage_text())
+                && validPosters.computeIfAbsent(message.getPosted_by(), accountService::accountExists);
+            if(!valid) {
+                rejected++;
+                return;
+            }
+            batch.add(message);
+            if(batch.size() >= BULK_BATCH_SIZE) flush();
+        }
+
+        //write whatever is left in the current batch
+        public void finish() {
+            flush();
+        }
+
+        private void flush() {
+            if(batch.isEmpty()) return;
+            for(Message message : messageDAO.insertMessages(batch)) {
+                if(message == null) {
+                    rejected++;
+                    continue;
+                }
+                inserted++;
+                versions.changed(message.getPosted_by());
+                for(MessageListener listener : listeners) listener.messageAdded(message);
+            }
+            batch.clear();
+        }
+
+        public long getInserted() {
+            return inserted;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+    }
+
+    //service method to validate posted_by refers to an existing account
     public boolean getValidUserPostedBy(Message message) {
-        return messageDAO.getValidUserPostedBy(message.getPosted_by());
+        return accountService.accountExists(message.getPosted_by());
     }
 
     //service method to get message by message_id in message db
@@ -40,41 +165,124 @@ public class MessageService {
 
     //service method to delete message by message_id in message db
     public Message deleteMessageById(int message_id) {
-        //first we need to get and store message using getMessageById service because
-        //Delete statement doesnt return deleted message, it returns (int) number of rows deleted
-        Message message = getMessageById(message_id);
-        //delete message by message_id from db
-        boolean deleteSuccess = messageDAO.deleteMessageById(message_id);
-        
-        //check if we were able to get a message, but unable to delete that message from db,
-        //if true we should return null because deletion was unsuccessful and response body should be empty
-        if(message != null && !deleteSuccess) return null;
-        return message;
+        //the DAO deletes and returns the deleted message in one statement, null if there was no such message
+        Message deleted = messageDAO.deleteMessageById(message_id);
+        if(deleted != null) {
+            versions.changed(deleted.getPosted_by());
+            for(MessageListener listener : listeners) listener.messageDeleted(deleted);
+        }
+        return deleted;
     }
 
     //service method to patch message by message_id in message db
     public Message patchMessageById(String message_text, int message_id) {
-        //first we need to get and store message using getMessageById service because
-        //Update statement doesnt return updated message, it returns (int) number of rows updated
-        Message message = getMessageById(message_id);
-
-        //check if message exists to be updated and if valid message_text provided
-        if(message != null && message_text.trim().length() > 0 && message_text.length() <= 255) {
-            boolean patchSuccess = messageDAO.patchMessageById(message_text, message_id);
-
-            //if patch success, update message obj to include patched message_text and return message
-            if(patchSuccess) {
-                message.setMessage_text(message_text);
-                return message;
-            }
-        }
+        //check valid message_text provided before touching the db
+        if(!isValidMessageText(message_text)) return null;
 
-        //if invalid message_text or message_id doesn't exist in message table, return null
-        return null;
+        //the DAO updates and returns the full updated message in one statement,
+        //null if message_id doesn't exist in message table
+        Message patched = messageDAO.patchMessageById(message_text, message_id);
+        if(patched != null) {
+            versions.changed(patched.getPosted_by());
+            for(MessageListener listener : listeners) listener.messageUpdated(patched);
+        }
+        return patched;
     }
 
     //service to get all messages by account_id
     public List<Message> getAllMessagesByAccountId(int account_id){
         return messageDAO.getAllMessagesByAccountId(account_id);
     }
+
+    //service to get a page of an account's messages posted in [since, until) in time order after the given
+    //(time_posted_epoch, message_id) position, after_time null starts from since, limit is clamped to MAX_PAGE_SIZE
+    public List<Message> getMessagesByAccountIdPage(int account_id, long since, long until, Long after_time, int after_message_id, int limit) {
+        return messageDAO.getMessagesByAccountIdPage(account_id, since, until, after_time, after_message_id,
+            Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+    }
+
+    //service to get a page of every account's messages posted in [since, until) in time order after the given
+    //(time_posted_epoch, message_id) position, after_time null starts from since, limit is clamped to MAX_PAGE_SIZE
+    public List<Message> getMessagesByTimePage(long since, long until, Long after_time, int after_message_id, int limit) {
+        return messageDAO.getMessagesByTimePage(since, until, after_time, after_message_id,
+            Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+    }
+
+    //service to stream the messages posted in [since, until) to the consumer in time order, only account_id's if it
+    //isn't null
+    public void streamMessagesByTime(Integer account_id, long since, long until, Consumer<Message> consumer) {
+        if(account_id == null) messageDAO.streamMessagesByTime(since, until, consumer);
+        else messageDAO.streamMessagesByAccountIdAndTime(account_id, since, until, consumer);
+    }
+
+    //service to get the messages with the given message_ids in the order given, leaving out any that don't exist
+    public List<Message> getMessagesByIds(int[] message_ids) {
+        return messageDAO.getMessagesByIds(message_ids);
+    }
+
+    //service to search message_text, returning the messages containing every term of query, best match first, after
+    //skipping offset of them, offset is clamped to MAX_SEARCH_OFFSET and limit to MAX_PAGE_SIZE
+    public SearchResults searchMessages(String query, int offset, int limit) {
+        InvertedIndex.Hits hits = messageDAO.searchMessages(query, Math.max(0, Math.min(offset, MAX_SEARCH_OFFSET)),
+            Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+        return new SearchResults(messageDAO.getMessagesByIds(hits.ids()), hits.total());
+    }
+
+    //one page of search results and how many messages matched in all
+    public static class SearchResults {
+        private final List<Message> messages;
+        private final int total;
+
+        private SearchResults(List<Message> messages, int total) {
+            this.messages = messages;
+            this.total = total;
+        }
+
+        public List<Message> getMessages() {
+            return messages;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    //async variants: the same work run on the bounded DbExecutor, so the calling request thread is not blocked on JDBC
+    //the future fails with RejectedExecutionException when the executor's queue is full
+
+    public CompletableFuture<List<Message>> getMessagesPageAsync(int after_message_id, int limit) {
+        return DbExecutor.supplyAsync(() -> getMessagesPage(after_message_id, limit));
+    }
+
+    public CompletableFuture<SearchResults> searchMessagesAsync(String query, int offset, int limit) {
+        return DbExecutor.supplyAsync(() -> searchMessages(query, offset, limit));
+    }
+
+    public CompletableFuture<Message> addMessageAsync(Message message) {
+        return DbExecutor.supplyAsync(() -> addMessage(message));
+    }
+
+    public CompletableFuture<Message> getMessageByIdAsync(int message_id) {
+        return DbExecutor.supplyAsync(() -> getMessageById(message_id));
+    }
+
+    public CompletableFuture<Message> deleteMessageByIdAsync(int message_id) {
+        return DbExecutor.supplyAsync(() -> deleteMessageById(message_id));
+    }
+
+    public CompletableFuture<Message> patchMessageByIdAsync(String message_text, int message_id) {
+        return DbExecutor.supplyAsync(() -> patchMessageById(message_text, message_id));
+    }
+
+    public CompletableFuture<List<Message>> getAllMessagesByAccountIdAsync(int account_id) {
+        return DbExecutor.supplyAsync(() -> getAllMessagesByAccountId(account_id));
+    }
+
+    public CompletableFuture<List<Message>> getMessagesByAccountIdPageAsync(int account_id, long since, long until, Long after_time, int after_message_id, int limit) {
+        return DbExecutor.supplyAsync(() -> getMessagesByAccountIdPage(account_id, since, until, after_time, after_message_id, limit));
+    }
+
+    public CompletableFuture<List<Message>> getMessagesByTimePageAsync(long since, long until, Long after_time, int after_message_id, int limit) {
+        return DbExecutor.supplyAsync(() -> getMessagesByTimePage(since, until, after_time, after_message_id, limit));
+    }
 }
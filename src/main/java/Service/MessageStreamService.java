@@ -0,0 +1,137 @@
+package Service;
+
+import DAO.DataAccessException;
+import DAO.EventLogDAO;
+import Model.ChangeEvent;
+import Model.Message;
+import Util.EventStream;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+//live stream of message writes, pushed to subscribers as they commit instead of clients polling GET /messages
+//
+//the stream tails the event log: each message write wakes one publisher thread, which reads the message events
+//committed since the last one it published and queues each for every subscriber, see EventStream for how a few
+//writer threads serve every subscriber and how slow ones are dropped. Events carry their sequence_id as their id, so
+//a subscriber that reconnects can ask for everything after the last one it saw, creates, updates and deletes alike,
+//and have it replayed from the log before the live events continue.
+public class MessageStreamService implements MessageListener {
+    //most subscribers at once, and how many events one can fall behind by before it is dropped
+    public static final int MAX_SUBSCRIBERS = Integer.getInteger("stream.maxSubscribers", 1000);
+    public static final int QUEUE_SIZE = Integer.getInteger("stream.queueSize", 1000);
+    //threads writing events to the subscribers' connections, a subscriber doesn't hold one while it waits
+    public static final int WRITER_THREADS = Integer.getInteger("stream.writerThreads", 4);
+    //seconds a subscriber may go without an event before a comment is sent, so idle connections are kept open and
+    //closed ones are noticed
+    public static final int HEARTBEAT_SECONDS = Integer.getInteger("stream.heartbeatSeconds", 15);
+
+    private final EventLogService eventLogService;
+    private final EventStream events = new EventStream(MAX_SUBSCRIBERS, QUEUE_SIZE, WRITER_THREADS);
+
+    //one thread reads the log and publishes, so events go out in sequence order, and writes don't wait for it
+    //it also queues the heartbeats
+    private final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "message-stream-publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //true while a read of the log is queued, so a burst of writes (a bulk insert) wakes the publisher once
+    private final AtomicBoolean publishPending = new AtomicBoolean();
+    //sequence_id of the last event published, only touched by the publisher thread
+    private long lastPublished;
+
+    //constructor sharing the services that own messages and the event log, writes are streamed from now on
+    public MessageStreamService(MessageService messageService, EventLogService eventLogService) {
+        this.eventLogService = eventLogService;
+        this.lastPublished = eventLogService.getLastSequenceId();
+        messageService.addListener(this);
+        publisher.scheduleWithFixedDelay(events::heartbeat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    //returns a new subscriber to the live events, queued until it is started, or null if there are MAX_SUBSCRIBERS
+    //already
+    public EventStream.Subscriber subscribe() {
+        return events.subscribe();
+    }
+
+    //sends every message event after after_sequence_id to consumer, oldest first, a page at a time, and returns the
+    //highest sequence_id sent (after_sequence_id if none were), throws DataAccessException if the log can't be read
+    //subscribe first, so nothing committed during the replay is missed, then start it skipping events up to this id
+    public long replay(long after_sequence_id, Consumer<EventStream.Event> consumer) {
+        while(true) {
+            List<ChangeEvent> page = eventLogService.getEventsAfter(after_sequence_id, EventLogDAO.MESSAGE, MessageService.MAX_PAGE_SIZE);
+            for(ChangeEvent event : page) {
+                consumer.accept(toStreamEvent(event));
+                after_sequence_id = event.getSequence_id();
+            }
+            if(page.size() < MessageService.MAX_PAGE_SIZE) return after_sequence_id;
+        }
+    }
+
+    //writes notify after committing, so their events are in the log by the time the publisher reads it
+    @Override
+    public void messageAdded(Message message) {
+        changed();
+    }
+
+    @Override
+    public void messageUpdated(Message message) {
+        changed();
+    }
+
+    @Override
+    public void messageDeleted(Message message) {
+        changed();
+    }
+
+    private void changed() {
+        if(publishPending.compareAndSet(false, true)) publisher.execute(this::publishNew);
+    }
+
+    //publishes the message events committed since the last one published
+    private void publishNew() {
+        //cleared before reading, so a write committed after the read starts queues another one
+        publishPending.set(false);
+        if(events.getSubscriberCount() == 0) {
+            //nobody to send them to, skip ahead instead of reading them
+            lastPublished = Math.max(lastPublished, eventLogService.getLastSequenceId());
+            return;
+        }
+        try {
+            while(true) {
+                List<ChangeEvent> page = eventLogService.getEventsAfter(lastPublished, EventLogDAO.MESSAGE, MessageService.MAX_PAGE_SIZE);
+                for(ChangeEvent event : page) {
+                    events.publish(toStreamEvent(event));
+                    lastPublished = event.getSequence_id();
+                }
+                if(page.size() < MessageService.MAX_PAGE_SIZE) return;
+            }
+        } catch(DataAccessException e) {
+            //already logged, read on from lastPublished again in a second rather than wait for the next write
+            publisher.schedule(this::changed, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    //the operation names the event, the message as it now is (as it was, for a delete) is its data
+    private static EventStream.Event toStreamEvent(ChangeEvent event) {
+        return new EventStream.Event(event.getSequence_id(), event.getOperation(), event.getPayload());
+    }
+
+    //subscribers and events, for metrics
+    public int getSubscriberCount() {
+        return events.getSubscriberCount();
+    }
+
+    public long getPublishedCount() {
+        return events.getPublishedCount();
+    }
+
+    public long getDroppedCount() {
+        return events.getDroppedCount();
+    }
+}
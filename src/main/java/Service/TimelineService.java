@@ -0,0 +1,294 @@
+package Service;
+
+import Model.Message;
+import DAO.FollowDAO;
+import Util.DbExecutor;
+import Util.RecentIds;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+//home timelines: the messages posted by the accounts someone follows, newest first
+//
+//timelines are precomputed for recently read accounts as the FEED_SIZE newest message_ids, and each new message is
+//pushed into the timelines of its poster's followers as it is posted (fan-out on write), so a read is one lookup of
+//a page of ids. Accounts with more than FANOUT_MAX_FOLLOWERS followers are not pushed, since one message would touch
+//that many timelines, their newest messages are merged in when a follower reads instead (fan-out on read).
+//pages older than a precomputed timeline holds are read from the database.
+//
+//the accounts each loaded timeline follows are kept with it, indexed by followee, so fanning a message out finds the
+//timelines to push into without a query. A timeline that fails to load is left unloaded and loaded again on its
+//next read, instead of being kept empty.
+public class TimelineService implements MessageListener {
+    //message_ids kept per precomputed timeline, and how many timelines are kept, least recently read dropped first
+    public static final int FEED_SIZE = Integer.getInteger("timeline.feedSize", 800);
+    public static final int MAX_FEEDS = Integer.getInteger("timeline.maxFeeds", 10000);
+    //accounts with more followers than this have their messages merged into timelines at read time
+    public static final int FANOUT_MAX_FOLLOWERS = Integer.getInteger("timeline.fanoutMaxFollowers", 10000);
+
+    private final FollowDAO followDAO;
+    private final MessageService messageService;
+    private final AccountService accountService;
+
+    //precomputed timelines by account_id, in order of last read so the head is the first to drop
+    private final LinkedHashMap<Integer, Feed> feeds = new LinkedHashMap<>();
+    //account_ids of the loaded timelines following each followee_id, guarded by feeds like it
+    private final Map<Integer, Set<Integer>> loadedFollowers = new HashMap<>();
+    //accounts over FANOUT_MAX_FOLLOWERS followers, loaded on first use
+    private Set<Integer> highFollowerAccounts;
+
+    private final LongAdder fanoutPushes = new LongAdder();
+    private final LongAdder feedReads = new LongAdder();
+    private final LongAdder feedLoads = new LongAdder();
+    private final LongAdder databaseReads = new LongAdder();
+
+    //constructor sharing the services that own messages and accounts, new messages are fanned out as they are posted
+    public TimelineService(MessageService messageService, AccountService accountService) {
+        this.followDAO = new FollowDAO();
+        this.messageService = messageService;
+        this.accountService = accountService;
+        messageService.addListener(this);
+    }
+
+    //service to make follower_id follow followee_id
+    //returns false if either account doesn't exist or they are the same account, true otherwise (even if already following)
+    public boolean follow(int follower_id, int followee_id) {
+        if(follower_id == followee_id || !accountService.accountExists(follower_id) || !accountService.accountExists(followee_id)) {
+            return false;
+        }
+        if(followDAO.follow(follower_id, followee_id)) {
+            //the follower's timeline is missing the followee's older messages, build it again on its next read
+            dropFeed(follower_id);
+            updateFanout(followee_id);
+        }
+        return true;
+    }
+
+    //service to stop follower_id following followee_id
+    //returns true if it was following
+    public boolean unfollow(int follower_id, int followee_id) {
+        if(!followDAO.unfollow(follower_id, followee_id)) return false;
+        //the follower's timeline still holds the followee's messages, build it again on its next read
+        dropFeed(follower_id);
+        updateFanout(followee_id);
+        return true;
+    }
+
+    //service to get account_id's home timeline, newest first: up to limit messages below before_message_id
+    //(Integer.MAX_VALUE for the newest), limit is clamped to MAX_PAGE_SIZE
+    public TimelinePage getTimeline(int account_id, int before_message_id, int limit) {
+        limit = Math.max(1, Math.min(limit, MessageService.MAX_PAGE_SIZE));
+        Feed feed = getFeed(account_id);
+
+        int[] message_ids;
+        boolean more;
+        if(before_message_id > feed.ids.lowest() || !feed.ids.isTruncated()) {
+            feedReads.increment();
+            //ids below the lowest one held may have been dropped from a full timeline, don't merge past it
+            int floor = feed.ids.isTruncated() ? feed.ids.lowest() : Integer.MIN_VALUE;
+            TreeSet<Integer> newest = new TreeSet<>(Comparator.reverseOrder());
+            for(int message_id : feed.ids.before(before_message_id, limit)) newest.add(message_id);
+            for(int followee_id : feed.highFollowerFollowees) {
+                for(int message_id : followDAO.getPostedMessageIds(followee_id, before_message_id, limit)) {
+                    if(message_id >= floor) newest.add(message_id);
+                }
+            }
+            message_ids = newest.stream().limit(limit).mapToInt(Integer::intValue).toArray();
+            //a page cut short at the floor continues from the database
+            more = message_ids.length == limit || (floor != Integer.MIN_VALUE && message_ids.length > 0);
+        } else {
+            //older than the precomputed timeline reaches, read it from every followed account
+            databaseReads.increment();
+            message_ids = followDAO.getTimelineMessageIds(account_id, before_message_id, limit);
+            more = message_ids.length == limit;
+        }
+
+        //messages deleted since their ids were stored are simply left out
+        List<Message> messages = messageService.getMessagesByIds(message_ids);
+        Integer next = more ? message_ids[message_ids.length - 1] : null;
+        return new TimelinePage(messages, next);
+    }
+
+    //fan out on write: push a new message into the loaded timelines of its poster's followers
+    //timelines that aren't loaded will read the message from the database when they are
+    @Override
+    public void messageAdded(Message message) {
+        List<Feed> followerFeeds = new ArrayList<>();
+        synchronized(feeds) {
+            Set<Integer> follower_ids = loadedFollowers.get(message.getPosted_by());
+            if(follower_ids == null) return;
+            for(int follower_id : follower_ids) {
+                Feed feed = feeds.get(follower_id);
+                if(feed != null) followerFeeds.add(feed);
+            }
+        }
+        //a timeline has loaded, so the set is loaded too and this never queries
+        if(getHighFollowerAccounts().contains(message.getPosted_by())) return;
+        for(Feed feed : followerFeeds) {
+            feed.ids.add(message.getMessage_id());
+            fanoutPushes.increment();
+        }
+    }
+
+    //returns account_id's timeline, loading it first if it isn't, and marks it the most recently read
+    private Feed getFeed(int account_id) {
+        Feed feed;
+        synchronized(feeds) {
+            feed = feeds.remove(account_id);
+            if(feed == null) feed = new Feed();
+            feeds.put(account_id, feed);
+            Iterator<Map.Entry<Integer, Feed>> leastRecentlyRead = feeds.entrySet().iterator();
+            while(feeds.size() > MAX_FEEDS) {
+                Map.Entry<Integer, Feed> dropped = leastRecentlyRead.next();
+                leastRecentlyRead.remove();
+                unregisterFollowees(dropped.getKey(), dropped.getValue());
+            }
+        }
+        //the feed is registered before it is loaded, so a message posted while it loads is pushed into it, and it is
+        //either read by the load or pushed (or both, the ids are only kept once)
+        feed.load(account_id);
+        return feed;
+    }
+
+    private void dropFeed(int account_id) {
+        synchronized(feeds) {
+            Feed feed = feeds.remove(account_id);
+            if(feed != null) unregisterFollowees(account_id, feed);
+        }
+    }
+
+    //lists account_id under each account its timeline follows, so messages they post are pushed into it
+    //a timeline dropped while it was loading is left out, its next read loads a new one
+    private void registerFollowees(int account_id, Feed feed) {
+        synchronized(feeds) {
+            if(feeds.get(account_id) != feed) return;
+            for(int followee_id : feed.followees) {
+                loadedFollowers.computeIfAbsent(followee_id, key -> new HashSet<>()).add(account_id);
+            }
+        }
+    }
+
+    //undoes registerFollowees for a timeline just removed from feeds, called holding feeds
+    private void unregisterFollowees(int account_id, Feed feed) {
+        for(int followee_id : feed.followees) {
+            Set<Integer> follower_ids = loadedFollowers.get(followee_id);
+            if(follower_ids != null && follower_ids.remove(account_id) && follower_ids.isEmpty()) loadedFollowers.remove(followee_id);
+        }
+    }
+
+    //moves followee_id between fan-out on write and on read if its follower count crossed FANOUT_MAX_FOLLOWERS
+    private void updateFanout(int followee_id) {
+        Set<Integer> highFollowers;
+        synchronized(this) {
+            highFollowers = highFollowerAccounts;
+        }
+        //not read yet, it will include this change when it is
+        if(highFollowers == null) return;
+        boolean high = followDAO.countFollowers(followee_id) > FANOUT_MAX_FOLLOWERS;
+        boolean changed = high ? highFollowers.add(followee_id) : highFollowers.remove(followee_id);
+        if(!changed) return;
+        //its followers' timelines were built for the other way round, build them again on their next read
+        for(int follower_id : followDAO.getFollowerIds(followee_id)) dropFeed(follower_id);
+    }
+
+    //throws DataAccessException if it can't be read, and is read again next time
+    private synchronized Set<Integer> getHighFollowerAccounts() {
+        if(highFollowerAccounts == null) {
+            Set<Integer> highFollowers = ConcurrentHashMap.newKeySet();
+            highFollowers.addAll(followDAO.getAccountsWithFollowersOver(FANOUT_MAX_FOLLOWERS));
+            highFollowerAccounts = highFollowers;
+        }
+        return highFollowerAccounts;
+    }
+
+    //timelines held in memory, with how they have been used, for metrics
+    public int getFeedCount() {
+        synchronized(feeds) {
+            return feeds.size();
+        }
+    }
+
+    public long getFanoutPushes() {
+        return fanoutPushes.sum();
+    }
+
+    public long getFeedReads() {
+        return feedReads.sum();
+    }
+
+    public long getFeedLoads() {
+        return feedLoads.sum();
+    }
+
+    public long getDatabaseReads() {
+        return databaseReads.sum();
+    }
+
+    //one account's precomputed timeline
+    private class Feed {
+        //the newest message_ids from accounts it follows
+        final RecentIds ids = new RecentIds(FEED_SIZE);
+        //the accounts it follows, and those of them whose messages aren't pushed into ids
+        List<Integer> followees = Collections.emptyList();
+        List<Integer> highFollowerFollowees = Collections.emptyList();
+        private boolean loaded;
+
+        //fills the timeline from the database the first time it succeeds, later calls wait for that to finish
+        //throws DataAccessException if a query fails, leaving the timeline unloaded for the next read to try again
+        synchronized void load(int account_id) {
+            if(loaded) return;
+            feedLoads.increment();
+            Set<Integer> highFollowers = getHighFollowerAccounts();
+            List<Integer> followee_ids = followDAO.getFolloweeIds(account_id);
+            List<Integer> highFollowerFollowee_ids = new ArrayList<>();
+            for(int followee_id : followee_ids) {
+                if(highFollowers.contains(followee_id)) highFollowerFollowee_ids.add(followee_id);
+            }
+            //registered before the newest ids are read, so a message is either read below or pushed (or both, the ids
+            //are only kept once)
+            followees = followee_ids;
+            registerFollowees(account_id, this);
+            int[] newest = followDAO.getTimelineMessageIds(account_id, Integer.MAX_VALUE, FEED_SIZE);
+            for(int message_id : newest) ids.add(message_id);
+            //the query was cut off, there are older messages than the ones held
+            if(newest.length == FEED_SIZE) ids.markTruncated();
+            highFollowerFollowees = highFollowerFollowee_ids;
+            loaded = true;
+        }
+    }
+
+    //one page of a home timeline, with the message_id to continue below if there may be more
+    public static class TimelinePage {
+        private final List<Message> messages;
+        private final Integer nextBefore;
+
+        private TimelinePage(List<Message> messages, Integer nextBefore) {
+            this.messages = messages;
+            this.nextBefore = nextBefore;
+        }
+
+        public List<Message> getMessages() {
+            return messages;
+        }
+
+        public Integer getNextBefore() {
+            return nextBefore;
+        }
+    }
+
+    //async variants: the same work run on the bounded DbExecutor, so the calling request thread is not blocked on JDBC
+
+    public CompletableFuture<Boolean> followAsync(int follower_id, int followee_id) {
+        return DbExecutor.supplyAsync(() -> follow(follower_id, followee_id));
+    }
+
+    public CompletableFuture<Boolean> unfollowAsync(int follower_id, int followee_id) {
+        return DbExecutor.supplyAsync(() -> unfollow(follower_id, followee_id));
+    }
+
+    public CompletableFuture<TimelinePage> getTimelineAsync(int account_id, int before_message_id, int limit) {
+        return DbExecutor.supplyAsync(() -> getTimeline(account_id, before_message_id, limit));
+    }
+}
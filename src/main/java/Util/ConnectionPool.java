@@ -0,0 +1,498 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+/**
+ * A bounded pool of physical JDBC connections. Callers borrow a connection with getConnection() and give it back by
+ * calling close() on it, which returns the physical connection to the pool instead of closing it.
+ *
+ * At most maxSize connections are ever open. A caller that can't get a connection within acquireTimeoutMillis gets
+ * an SQLTransientConnectionException. A background housekeeper closes connections that have sat idle longer than
+ * idleTimeoutMillis (keeping minIdle of them around) and reports connections that have been borrowed for longer than
+ * leakDetectionMillis (0 turns this off), along with the stack trace of where they were borrowed.
+ *
+ * Each physical connection also keeps the last statementCacheSize statements prepared on it (0 turns this off), keyed
+ * by SQL. Preparing the same SQL again on that connection reuses the already parsed statement, and closing it returns
+ * it to the cache with its parameters cleared instead of closing it, so the fixed set of DAO statements is parsed
+ * once per connection rather than once per request.
+ */
+public class ConnectionPool {
+    /**
+     * Distribution of how long callers waited for a permit, across every pool in the process.
+     */
+    private static final Metrics.Timer ACQUIRE_WAIT_TIMER = Metrics.timer("db_pool_acquire_wait_seconds",
+            "Time spent waiting for a pooled connection");
+    private static final Metrics.Counter STATEMENT_CACHE_HITS = Metrics.counter("db_statement_cache_hits_total",
+            "Statements reused from a connection's prepared statement cache");
+    private static final Metrics.Counter STATEMENT_CACHE_MISSES = Metrics.counter("db_statement_cache_misses_total",
+            "Statements that had to be prepared because they weren't in the connection's cache");
+    private static final Metrics.Counter STATEMENT_CACHE_EVICTIONS = Metrics.counter("db_statement_cache_evictions_total",
+            "Cached prepared statements closed to make room for others");
+
+    private final DataSource dataSource;
+    private final int maxSize;
+    private final int minIdle;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakDetectionMillis;
+    private final int statementCacheSize;
+
+    /**
+     * One permit per connection the pool is allowed to hand out. Fair, so waiting callers are served in order.
+     */
+    private final Semaphore permits;
+    /**
+     * Idle connections, most recently returned first so the oldest ones at the tail are the ones that get evicted.
+     */
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<Lease> active = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean shutdown;
+
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public ConnectionPool(DataSource dataSource, int maxSize, int minIdle, long acquireTimeoutMillis,
+                          long idleTimeoutMillis, long leakDetectionMillis, int statementCacheSize) {
+        this.dataSource = dataSource;
+        this.maxSize = maxSize;
+        this.minIdle = Math.min(minIdle, maxSize);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakDetectionMillis = leakDetectionMillis;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.permits = new Semaphore(maxSize, true);
+
+        //single daemon thread so an unclosed pool never keeps the JVM alive
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long checkEvery = leakDetectionMillis > 0 ? Math.min(idleTimeoutMillis, leakDetectionMillis) : idleTimeoutMillis;
+        long period = Math.max(1000, checkEvery / 2);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return a connection borrowed from the pool, which must be closed to give it back
+     * @throws SQLTransientConnectionException if no connection frees up within the acquire timeout
+     */
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if(!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                throw new SQLTransientConnectionException("Timed out after " + acquireTimeoutMillis
+                        + "ms waiting for a connection (active=" + getActiveCount() + ", max=" + maxSize + ")");
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection", e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if(pooled == null) {
+                pooled = new PooledConnection(dataSource.getConnection(), statementCacheSize);
+                createdCount.increment();
+            }
+            Lease lease = new Lease(pooled);
+            active.add(lease);
+            acquireCount.increment();
+            return lease.proxy;
+        } catch(SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    //pop idle connections until we find one that is still open, closing any that aren't
+    private PooledConnection takeIdle() {
+        PooledConnection pooled;
+        while((pooled = idle.pollFirst()) != null) {
+            if(pooled.isUsable()) return pooled;
+            pooled.closePhysical();
+        }
+        return null;
+    }
+
+    private void recordWait(long waitNanos) {
+        ACQUIRE_WAIT_TIMER.record(waitNanos);
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    //called once per lease when the borrower closes its connection
+    private void release(Lease lease) {
+        active.remove(lease);
+        PooledConnection pooled = lease.pooled;
+        if(!shutdown && pooled.reset()) {
+            pooled.lastReturnedNanos = System.nanoTime();
+            idle.offerFirst(pooled);
+        } else {
+            pooled.closePhysical();
+        }
+        permits.release();
+    }
+
+    private void housekeep() {
+        long now = System.nanoTime();
+
+        //evict from the tail (least recently used) while we are above minIdle and the connection has been idle too long
+        Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+        while(oldestFirst.hasNext() && idle.size() > minIdle) {
+            PooledConnection pooled = oldestFirst.next();
+            if(TimeUnit.NANOSECONDS.toMillis(now - pooled.lastReturnedNanos) < idleTimeoutMillis) break;
+            if(idle.removeLastOccurrence(pooled)) {
+                pooled.closePhysical();
+                evictedCount.increment();
+            }
+        }
+
+        //report each leaked lease once, pointing at where it was borrowed
+        if(leakDetectionMillis <= 0) return;
+        for(Lease lease : active) {
+            if(!lease.leakReported && TimeUnit.NANOSECONDS.toMillis(now - lease.borrowedNanos) >= leakDetectionMillis) {
+                lease.leakReported = true;
+                leakCount.increment();
+                System.out.println("Possible connection leak: connection borrowed by " + lease.borrower.getName()
+                        + " has not been returned after " + leakDetectionMillis + "ms");
+                lease.borrowedAt.printStackTrace(System.out);
+            }
+        }
+    }
+
+    /**
+     * Closes every idle connection and stops the housekeeper. Borrowed connections are closed as they come back.
+     */
+    public void shutdown() {
+        shutdown = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while((pooled = idle.pollFirst()) != null) pooled.closePhysical();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    public long getLeakCount() {
+        return leakCount.sum();
+    }
+
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.sum();
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "max=" + maxSize +
+                ", active=" + getActiveCount() +
+                ", idle=" + getIdleCount() +
+                ", waiting=" + getWaitingCount() +
+                ", acquired=" + getAcquireCount() +
+                ", timeouts=" + getTimeoutCount() +
+                ", leaks=" + getLeakCount() +
+                ", totalWaitMs=" + TimeUnit.NANOSECONDS.toMillis(getTotalWaitNanos()) +
+                '}';
+    }
+
+    /**
+     * A physical connection owned by the pool.
+     */
+    private static class PooledConnection {
+        final Connection physical;
+        volatile long lastReturnedNanos = System.nanoTime();
+        /**
+         * Prepared statements by cache key, least recently used first. Only touched by the connection's one borrower.
+         */
+        final LinkedHashMap<String, CachedStatement> statementCache;
+        final int statementCacheSize;
+
+        PooledConnection(Connection physical, int statementCacheSize) {
+            this.physical = physical;
+            this.statementCacheSize = statementCacheSize;
+            this.statementCache = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    if(size() <= statementCacheSize) return false;
+                    STATEMENT_CACHE_EVICTIONS.increment();
+                    //a statement still checked out is closed when it comes back instead
+                    eldest.getValue().evicted = true;
+                    if(!eldest.getValue().inUse) eldest.getValue().closePhysical();
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * @return a statement for sql, from the cache if one is there and not already in use by this borrower
+         */
+        PreparedStatement prepare(Method method, Object[] args) throws Throwable {
+            //prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys) are cached, other variants are not
+            boolean cacheable = statementCacheSize > 0 && (args.length == 1 || (args.length == 2 && args[1] instanceof Integer));
+            if(!cacheable) return (PreparedStatement) invokeOn(physical, method, args);
+
+            String key = args.length == 1 ? (String) args[0] : args[0] + "\0" + args[1];
+            CachedStatement cached = statementCache.get(key);
+            if(cached != null && !cached.inUse) {
+                STATEMENT_CACHE_HITS.increment();
+            } else {
+                STATEMENT_CACHE_MISSES.increment();
+                PreparedStatement statement = (PreparedStatement) invokeOn(physical, method, args);
+                //the same SQL prepared twice at once on one connection, the second copy just isn't cached
+                if(cached != null) return statement;
+                cached = new CachedStatement(statement);
+                statementCache.put(key, cached);
+            }
+            cached.inUse = true;
+            return cached.checkOut();
+        }
+
+        boolean isUsable() {
+            try {
+                return !physical.isClosed();
+            } catch(SQLException e) {
+                return false;
+            }
+        }
+
+        //undo anything a borrower may have left behind, returns false if the connection is no longer safe to reuse
+        boolean reset() {
+            try {
+                if(physical.isClosed()) return false;
+                if(!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                if(physical.isReadOnly()) physical.setReadOnly(false);
+                physical.clearWarnings();
+                return true;
+            } catch(SQLException e) {
+                System.out.println(e.getMessage());
+                return false;
+            }
+        }
+
+        void closePhysical() {
+            statementCache.clear();
+            try {
+                physical.close();
+            } catch(SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A prepared statement kept open in a connection's cache. Each checkOut() hands out a new proxy whose close()
+     * resets the statement and puts it back instead of closing it.
+     */
+    private static class CachedStatement {
+        final PreparedStatement statement;
+        final int defaultFetchSize;
+        final int defaultMaxRows;
+        final int defaultQueryTimeout;
+        boolean inUse;
+        boolean evicted;
+
+        CachedStatement(PreparedStatement statement) throws SQLException {
+            this.statement = statement;
+            this.defaultFetchSize = statement.getFetchSize();
+            this.defaultMaxRows = statement.getMaxRows();
+            this.defaultQueryTimeout = statement.getQueryTimeout();
+        }
+
+        PreparedStatement checkOut() {
+            boolean[] closed = {false};
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                switch(method.getName()) {
+                    case "close":
+                        if(!closed[0]) {
+                            closed[0] = true;
+                            checkIn();
+                        }
+                        return null;
+                    case "isClosed":
+                        return closed[0] || statement.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        if(closed[0]) throw new SQLException("Statement has already been closed");
+                        return invokeOn(statement, method, args);
+                }
+            });
+        }
+
+        //leave the statement as a fresh prepare would, or close it if it can't be reused
+        private void checkIn() {
+            inUse = false;
+            try {
+                if(evicted || statement.isClosed()) {
+                    closePhysical();
+                    return;
+                }
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.clearWarnings();
+                //max rows first, H2 rejects a fetch size above it
+                if(statement.getMaxRows() != defaultMaxRows) statement.setMaxRows(defaultMaxRows);
+                if(statement.getFetchSize() != defaultFetchSize) statement.setFetchSize(defaultFetchSize);
+                if(statement.getQueryTimeout() != defaultQueryTimeout) statement.setQueryTimeout(defaultQueryTimeout);
+            } catch(SQLException e) {
+                System.out.println(e.getMessage());
+                evicted = true;
+                closePhysical();
+            }
+        }
+
+        void closePhysical() {
+            try {
+                statement.close();
+            } catch(SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch(InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * One borrow of a pooled connection. Each borrower gets its own proxy, so a stale reference kept after close()
+     * can't touch the connection once someone else has borrowed it.
+     */
+    private class Lease implements InvocationHandler {
+        final PooledConnection pooled;
+        final Connection proxy;
+        final long borrowedNanos = System.nanoTime();
+        final Thread borrower = Thread.currentThread();
+        final Exception borrowedAt;
+        final List<Statement> statements = new ArrayList<>();
+        volatile boolean closed;
+        volatile boolean leakReported;
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+            //capturing a stack trace isn't free, so only do it when leak detection is on
+            this.borrowedAt = leakDetectionMillis > 0 ? new Exception("Connection borrowed here") : null;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch(method.getName()) {
+                case "close":
+                    close();
+                    return null;
+                case "isClosed":
+                    return closed || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Lease[" + pooled.physical + "]";
+                default:
+                    if(closed) throw new SQLException("Connection has already been returned to the pool");
+            }
+
+            Object result;
+            if(method.getName().equals("prepareStatement")) {
+                //reuse this connection's already parsed statement for the same SQL, and profile every execution
+                result = StatementProfiler.wrap(pooled.prepare(method, args), (String) args[0]);
+            } else {
+                result = invokeOn(pooled.physical, method, args);
+            }
+            //remember statements so ones the borrower forgot about are closed when the connection comes back
+            if(result instanceof Statement) statements.add((Statement) result);
+            return result;
+        }
+
+        private void close() {
+            if(closed) return;
+            closed = true;
+            for(Statement statement : statements) {
+                try {
+                    statement.close();
+                } catch(SQLException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+            release(this);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package Util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The bounded executor for CPU-bound work the services do between queries, password hashing above all, so it neither
+ * ties up a DbExecutor thread (and with it the connection that thread could be using) nor runs on a request thread.
+ *
+ * It has one thread per core (-Dcpu.executor.threads), more would only take turns on the same cores, and a bounded
+ * queue (-Dcpu.executor.queueSize, 1000). Like DbExecutor, once the queue is full supplyAsync() returns a future
+ * failed with a RejectedExecutionException, which the controller answers with 429 Too Many Requests.
+ */
+public class CpuExecutor {
+    private static final ThreadPoolExecutor EXECUTOR;
+    private static final LongAdder rejectedCount = new LongAdder();
+
+    static {
+        int threads = Integer.getInteger("cpu.executor.threads", Runtime.getRuntime().availableProcessors());
+        int queueSize = Integer.getInteger("cpu.executor.queueSize", 1000);
+        AtomicInteger threadNumber = new AtomicInteger();
+        EXECUTOR = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                task -> {
+                    Thread thread = new Thread(task, "cpu-executor-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Runs work on the executor.
+     * @return a future completed with work's result, or failed with a RejectedExecutionException if the queue is full
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(work, EXECUTOR);
+        } catch(RejectedExecutionException e) {
+            rejectedCount.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public static int getThreadCount() {
+        return EXECUTOR.getMaximumPoolSize();
+    }
+
+    public static int getActiveCount() {
+        return EXECUTOR.getActiveCount();
+    }
+
+    public static int getQueuedCount() {
+        return EXECUTOR.getQueue().size();
+    }
+
+    public static long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+}
@@ -0,0 +1,71 @@
+package Util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The bounded executor the services' async methods run their blocking JDBC work on, so request threads hand off
+ * instead of waiting on the database.
+ *
+ * It has a fixed number of threads (-Ddb.executor.threads, the connection pool's maxSize by default, since more
+ * threads would only wait for connections) and a bounded queue (-Ddb.executor.queueSize, 1000). Once the queue is
+ * full new work is refused rather than queued, and supplyAsync() returns a future failed with a
+ * RejectedExecutionException, which the controller answers with 429 Too Many Requests.
+ */
+public class DbExecutor {
+    private static final ThreadPoolExecutor EXECUTOR;
+    private static final LongAdder rejectedCount = new LongAdder();
+
+    static {
+        int threads = Integer.getInteger("db.executor.threads", ConnectionUtil.getPool().getMaxSize());
+        int queueSize = Integer.getInteger("db.executor.queueSize", 1000);
+        AtomicInteger threadNumber = new AtomicInteger();
+        EXECUTOR = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                task -> {
+                    Thread thread = new Thread(task, "db-executor-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Runs work on the executor.
+     * @return a future completed with work's result, or failed with a RejectedExecutionException if the queue is full
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(work, EXECUTOR);
+        } catch(RejectedExecutionException e) {
+            rejectedCount.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public static int getThreadCount() {
+        return EXECUTOR.getMaximumPoolSize();
+    }
+
+    public static int getActiveCount() {
+        return EXECUTOR.getActiveCount();
+    }
+
+    public static int getQueuedCount() {
+        return EXECUTOR.getQueue().size();
+    }
+
+    public static long getCompletedCount() {
+        return EXECUTOR.getCompletedTaskCount();
+    }
+
+    public static long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+}
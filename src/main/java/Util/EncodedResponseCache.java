@@ -0,0 +1,201 @@
+package Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Response bodies already encoded as JSON bytes, kept so repeated reads of the same unchanged data are written
+ * straight from memory, without a query or any serialization. Every reader of an entry shares the one byte array, and
+ * the gzipped form is made once, the first time a client accepts it.
+ *
+ * Each entry is stored with the version of the data it was built from (see VersionTracker) and is only returned while
+ * that is still the current version, so writes invalidate entries without the cache having to be told. Entries are
+ * evicted least recently used first once the bodies add up to more than maxBytes, and a body larger than
+ * maxEntryBytes is never kept.
+ */
+public class EncodedResponseCache {
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final Metrics.Counter hits;
+    private final Metrics.Counter misses;
+
+    /**
+     * @param name label for this cache's hit and miss counters
+     */
+    public EncodedResponseCache(String name, long maxBytes, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+        this.hits = Metrics.counter("response_cache_hits_total", "Responses written from cached encoded bodies", "cache", name);
+        this.misses = Metrics.counter("response_cache_misses_total", "Responses that had to be built and encoded", "cache", name);
+    }
+
+    /**
+     * @return the entry for key if it was built from version, otherwise null
+     */
+    public synchronized Entry get(String key, Object version) {
+        Entry entry = entries.get(key);
+        if(entry != null && entry.version == version) {
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Stores json as the body for key at version, unless it is too large to keep.
+     * @return the stored entry, or null if it wasn't kept
+     */
+    public synchronized Entry put(String key, Object version, byte[] json, Map<String, String> headers) {
+        if(json.length > maxEntryBytes) return null;
+        Entry entry = new Entry(key, version, json, headers);
+        Entry replaced = entries.put(key, entry);
+        if(replaced != null) totalBytes -= replaced.size();
+        totalBytes += entry.size();
+        evict();
+        return entry;
+    }
+
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    //drop least recently used entries until the bodies fit in maxBytes again
+    private void evict() {
+        Iterator<Entry> oldestFirst = entries.values().iterator();
+        while(totalBytes > maxBytes && oldestFirst.hasNext()) {
+            totalBytes -= oldestFirst.next().size();
+            oldestFirst.remove();
+        }
+    }
+
+    //attaches an entry's gzipped body under the cache lock, so the gzipped copy counts against maxBytes too
+    private synchronized void attachGzip(Entry entry, byte[] gzip) {
+        entry.gzip = gzip;
+        //the entry may have been replaced or evicted while it was compressing
+        if(entries.get(entry.key) == entry) {
+            totalBytes += gzip.length;
+            evict();
+        }
+    }
+
+    /**
+     * One cached body with the headers that go with it.
+     */
+    public class Entry {
+        private final String key;
+        private final Object version;
+        private final byte[] json;
+        private final Map<String, String> headers;
+        private volatile byte[] gzip;
+
+        private Entry(String key, Object version, byte[] json, Map<String, String> headers) {
+            this.key = key;
+            this.version = version;
+            this.json = json;
+            this.headers = Collections.unmodifiableMap(headers);
+        }
+
+        public byte[] json() {
+            return json;
+        }
+
+        /**
+         * @return the body gzipped, compressed by whichever reader asks first
+         */
+        public byte[] gzip() {
+            byte[] compressed = gzip;
+            if(compressed != null) return compressed;
+            synchronized(this) {
+                if(gzip == null) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, json.length / 4));
+                    try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+                        gzipOut.write(json);
+                    } catch(IOException e) {
+                        //writing to memory can't fail
+                        throw new UncheckedIOException(e);
+                    }
+                    attachGzip(this, out.toByteArray());
+                }
+                return gzip;
+            }
+        }
+
+        public Map<String, String> headers() {
+            return headers;
+        }
+
+        //only called with the cache locked, gzip is only ever set under that lock
+        private long size() {
+            byte[] compressed = gzip;
+            return json.length + (compressed == null ? 0 : compressed.length);
+        }
+    }
+
+    /**
+     * Passes everything written through to out while keeping a copy, until more than limit bytes have been written,
+     * so a response can be streamed to its client and cached in the same pass.
+     */
+    public static class CapturingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final long limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        public CapturingOutputStream(OutputStream out, long limit) {
+            this.out = out;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if(keep(1)) copy.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if(keep(len)) copy.write(b, off, len);
+        }
+
+        //stop copying for good once the copy would go over the limit
+        private boolean keep(int len) {
+            if(copy != null && copy.size() + len > limit) copy = null;
+            return copy != null;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        /**
+         * @return everything written, or null if it went over the limit
+         */
+        public byte[] captured() {
+            return copy == null ? null : copy.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package Util;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Fans events out to any number of subscribers, each with its own bounded queue. A small pool of writer threads hands
+ * each subscriber's events to its sink in the order they were published, so a subscriber costs a queue, not a thread
+ * waiting on it.
+ *
+ * publish() never blocks: a subscriber whose queue is already full is dropped on the spot, instead of slowing the
+ * publisher or growing without bound, and its sink is handed the DROPPED event so it can tell its client to reconnect
+ * and catch up. The number of subscribers is capped too, subscribe() returns null once it is reached.
+ *
+ * A subscriber's events are queued from subscribe() on but only handed to its sink once start() is called, so it can
+ * replay older events from elsewhere first without missing any published meanwhile. heartbeat() hands HEARTBEAT to
+ * every subscriber with nothing queued, so a sink writing to a connection finds out when it has gone.
+ */
+public class EventStream {
+    /**
+     * Handed to a subscriber's sink, last, once it has been dropped for falling behind.
+     */
+    public static final Event DROPPED = new Event(-1, "dropped", "");
+    /**
+     * Handed to a subscriber's sink by heartbeat() when it has nothing else to send.
+     */
+    public static final Event HEARTBEAT = new Event(-1, "heartbeat", "");
+
+    private final int maxSubscribers;
+    private final int queueSize;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    //runs at most one delivery per subscriber at a time, so its queue never holds more than maxSubscribers tasks
+    private final ThreadPoolExecutor writers;
+    private final LongAdder published = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+
+    /**
+     * @param maxSubscribers most subscribers at once
+     * @param queueSize events a subscriber can fall behind by before it is dropped
+     * @param writerThreads threads handing events to the subscribers' sinks
+     */
+    public EventStream(int maxSubscribers, int queueSize, int writerThreads) {
+        this.maxSubscribers = maxSubscribers;
+        this.queueSize = queueSize;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.writers = new ThreadPoolExecutor(writerThreads, writerThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                task -> {
+                    Thread thread = new Thread(task, "event-stream-writer-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        //idle streams keep no threads around
+        this.writers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return a new subscriber, queueing every event published from now on, or null if there are too many already
+     */
+    public synchronized Subscriber subscribe() {
+        if(subscribers.size() >= maxSubscribers) return null;
+        Subscriber subscriber = new Subscriber(queueSize);
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * Queues event for every subscriber, dropping any that have no room left for it.
+     */
+    public void publish(Event event) {
+        published.increment();
+        for(Subscriber subscriber : subscribers) {
+            if(subscriber.queue.offer(event)) subscriber.schedule();
+            else drop(subscriber);
+        }
+    }
+
+    /**
+     * Queues HEARTBEAT for every subscriber with nothing queued, the others are about to be written to anyway.
+     */
+    public void heartbeat() {
+        for(Subscriber subscriber : subscribers) {
+            if(subscriber.queue.isEmpty() && subscriber.queue.offer(HEARTBEAT)) subscriber.schedule();
+        }
+    }
+
+    private void drop(Subscriber subscriber) {
+        if(!subscribers.remove(subscriber)) return;
+        droppedCount.increment();
+        subscriber.dropped = true;
+        //nothing queued is sent after DROPPED, the client catches up by reconnecting
+        subscriber.queue.clear();
+        subscriber.schedule();
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public long getPublishedCount() {
+        return published.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * One published event: a name, its data already encoded, and an id clients can resume after, -1 if it has none.
+     */
+    public static class Event {
+        private final long id;
+        private final String name;
+        private final String data;
+
+        public Event(long id, String name, String data) {
+            this.id = id;
+            this.name = name;
+            this.data = data;
+        }
+
+        public long id() {
+            return id;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public String data() {
+            return data;
+        }
+    }
+
+    /**
+     * One reader of the stream. Close it to stop receiving events.
+     */
+    public class Subscriber implements AutoCloseable {
+        private final BlockingQueue<Event> queue;
+        //true while a delivery is queued or running on the writers
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile Consumer<Event> sink;
+        private volatile boolean dropped;
+        private volatile boolean closed;
+
+        private Subscriber(int queueSize) {
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        }
+
+        /**
+         * Starts handing events to sink on the writer threads, oldest first, beginning with those queued since
+         * subscribe(). sink is only ever called by one thread at a time. If it throws the subscriber is closed.
+         */
+        public void start(Consumer<Event> sink) {
+            this.sink = sink;
+            schedule();
+        }
+
+        private void schedule() {
+            if(sink != null && !closed && scheduled.compareAndSet(false, true)) writers.execute(this::deliver);
+        }
+
+        //hands over everything queued, then DROPPED and nothing more if it was dropped meanwhile
+        private void deliver() {
+            try {
+                while(!closed) {
+                    if(dropped) {
+                        close();
+                        sink.accept(DROPPED);
+                        return;
+                    }
+                    Event event = queue.poll();
+                    if(event == null) break;
+                    sink.accept(event);
+                }
+            } catch(RuntimeException e) {
+                //whatever the sink writes to has failed, nothing after this event would get through either
+                close();
+            } finally {
+                scheduled.set(false);
+            }
+            //an event queued after the last poll found the delivery still running and scheduled nothing
+            if(!queue.isEmpty() || dropped) schedule();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            subscribers.remove(this);
+            queue.clear();
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * An in-memory inverted index of short texts keyed by int id, ranked with BM25. Each term maps to the ids of the texts
+ * containing it, sorted by id, with how often the term occurs in each, so a search only visits the texts that share
+ * its rarest term instead of scanning every text.
+ *
+ * Texts are split into terms on anything that isn't a letter or digit and lowercased, with no stemming or stop words,
+ * so "Hello, world!" is indexed as hello and world. A search matches the texts containing every one of its terms.
+ *
+ * The index is filled by the loader, run by load() or on a background thread by loadInBackground(). Until then
+ * add() and remove() do nothing, since the loader will read their changes from the database anyway, and search()
+ * throws NotLoadedException rather than wait, starting a background load if none is running. After that the caller keeps it in step by calling
+ * add() for new texts, remove() with the old text of deleted ones and both for edits, in the order the changes were
+ * made. Changes made while the loader is running are held back and applied in order once it finishes. Both are
+ * idempotent, so a change the loader may or may not have read ends up indexed exactly once.
+ *
+ * The loader runs without the index's lock, so writers that hold database connections while they update the index
+ * never wait on a loader that is waiting for a connection. If the loader throws, load() throws too, the index is
+ * left empty and unloaded, and the next search starts the loader again.
+ *
+ * Ids index plain arrays, so they are expected to be dense like auto-increment keys.
+ */
+public class InvertedIndex {
+    //BM25's usual term frequency saturation and length normalization
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private final Consumer<BiConsumer<Integer, String>> loader;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    //held by whoever is running the loader, so it only ever runs once at a time
+    private final ReentrantLock loadLock = new ReentrantLock();
+    //set while a background load is starting or running, so searches don't start another
+    private final AtomicBoolean backgroundLoad = new AtomicBoolean();
+    private volatile long loadNanos;
+    private final LongAdder loadFailures = new LongAdder();
+    private final Map<String, Postings> terms = new HashMap<>();
+    //number of terms in each indexed text by id, 0 for ids not in the index
+    private int[] lengths = new int[1024];
+    private int documentCount;
+    private long totalLength;
+    private volatile boolean loaded;
+    //true while the loader runs, add() and remove() queue their changes in pending until it is done
+    private boolean loading;
+    private final List<Runnable> pending = new ArrayList<>();
+
+    /**
+     * @param loader passed a sink to call with the id and text of everything to index, each time the index is loaded
+     */
+    public InvertedIndex(Consumer<BiConsumer<Integer, String>> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Indexes text under id, replacing the terms of any text already indexed there that text also contains.
+     */
+    public void add(int id, String text) {
+        lock.writeLock().lock();
+        try {
+            if(loaded) put(id, text);
+            else if(loading) pending.add(() -> put(id, text));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes id from the index, given the text it was indexed with.
+     */
+    public void remove(int id, String text) {
+        lock.writeLock().lock();
+        try {
+            if(loaded) unput(id, text);
+            else if(loading) pending.add(() -> unput(id, text));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the texts containing every term of query, best match first (ties go to the higher id), and returns the
+     * limit of them after skipping the first offset.
+     * @throws NotLoadedException if the index hasn't been loaded yet, a background load is started if none is running
+     */
+    public Hits search(String query, int offset, int limit) {
+        if(!loaded) {
+            loadInBackground();
+            if(!loaded) throw new NotLoadedException();
+        }
+        Map<String, Integer> queryTerms = termCounts(query);
+        lock.readLock().lock();
+        try {
+            if(queryTerms.isEmpty()) return new Hits(new int[0], 0);
+            Postings[] matched = new Postings[queryTerms.size()];
+            int i = 0;
+            for(String term : queryTerms.keySet()) {
+                Postings postings = terms.get(term);
+                if(postings == null) return new Hits(new int[0], 0);
+                matched[i++] = postings;
+            }
+            //drive the search from the rarest term, every match has to be in its list
+            Arrays.sort(matched, Comparator.comparingInt(postings -> postings.size));
+            float[] idf = new float[matched.length];
+            for(int t = 0; t < matched.length; t++) {
+                idf[t] = (float) Math.log(1 + (documentCount - matched[t].size + 0.5) / (matched[t].size + 0.5));
+            }
+            float averageLength = documentCount == 0 ? 1 : (float) totalLength / documentCount;
+
+            //the best offset + limit so far, worst on top so it's the one pushed out
+            int wanted = offset + limit;
+            PriorityQueue<long[]> best = new PriorityQueue<>(Math.min(wanted, 1024) + 1, InvertedIndex::compareScored);
+            //candidates are visited highest id first, so on equal scores the ones already kept win and most
+            //candidates can be turned away without touching the queue
+            int[] ends = new int[matched.length];
+            for(int t = 0; t < matched.length; t++) ends[t] = matched[t].size;
+            int total = 0;
+            Postings rarest = matched[0];
+            candidates:
+            for(int p = rarest.size - 1; p >= 0; p--) {
+                int id = rarest.ids[p];
+                float norm = K1 * (1 - B + B * lengths[id] / averageLength);
+                float score = idf[0] * termScore(rarest.counts[p], norm);
+                for(int t = 1; t < matched.length; t++) {
+                    //each other list only needs searching below where the previous candidate was looked for
+                    int found = matched[t].seek(id, ends[t]);
+                    if(found < 0) {
+                        ends[t] = -found - 1;
+                        continue candidates;
+                    }
+                    ends[t] = found;
+                    score += idf[t] * termScore(matched[t].counts[found], norm);
+                }
+                total++;
+                if(best.size() < wanted) best.add(new long[]{Float.floatToIntBits(score), id});
+                else if(wanted > 0 && score > Float.intBitsToFloat((int) best.peek()[0])) {
+                    best.poll();
+                    best.add(new long[]{Float.floatToIntBits(score), id});
+                }
+            }
+
+            int[] ids = new int[Math.max(0, best.size() - offset)];
+            //the queue gives back the worst first, so fill from the end and drop what falls before offset
+            for(int rank = best.size() - 1; rank >= 0; rank--) {
+                long[] scored = best.poll();
+                if(rank >= offset) ids[rank - offset] = (int) scored[1];
+            }
+            return new Hits(ids, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return documentCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return how long the last successful load took, 0 if there hasn't been one
+     */
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+
+    public long getLoadFailures() {
+        return loadFailures.sum();
+    }
+
+    private static float termScore(int count, float norm) {
+        return count * (K1 + 1) / (count + norm);
+    }
+
+    //orders by score, then id, lowest first
+    private static int compareScored(long[] a, long[] b) {
+        int byScore = Float.compare(Float.intBitsToFloat((int) a[0]), Float.intBitsToFloat((int) b[0]));
+        return byScore != 0 ? byScore : Long.compare(a[1], b[1]);
+    }
+
+    /**
+     * Starts load() on a daemon thread, unless the index is loaded or a background load is already running. A failed
+     * load is counted in getLoadFailures() and leaves the index unloaded for the next search to try again.
+     */
+    public void loadInBackground() {
+        if(loaded || !backgroundLoad.compareAndSet(false, true)) return;
+        Thread loader = new Thread(() -> {
+            try {
+                load();
+            } catch(RuntimeException e) {
+                //counted by load(), and the loader is expected to have logged why
+            } finally {
+                backgroundLoad.set(false);
+            }
+        }, "search-index-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Runs the loader on this thread, unless the index is already loaded. A load already running elsewhere is waited
+     * for rather than run twice. The write lock is only taken a row at a time, so changes go on being queued while
+     * the loader reads.
+     * @throws RuntimeException whatever the loader threw, the index is left empty and unloaded
+     */
+    public void load() {
+        if(loaded) return;
+        loadLock.lock();
+        try {
+            if(loaded) return;
+            long start = System.nanoTime();
+            lock.writeLock().lock();
+            try {
+                loading = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            boolean succeeded = false;
+            try {
+                loader.accept((id, text) -> {
+                    lock.writeLock().lock();
+                    try {
+                        put(id, text);
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                });
+                succeeded = true;
+            } finally {
+                lock.writeLock().lock();
+                try {
+                    //the changes made meanwhile, in the order they were made, or nothing at all if the load failed
+                    if(succeeded) pending.forEach(Runnable::run);
+                    else clear();
+                    pending.clear();
+                    loading = false;
+                    loaded = succeeded;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                if(succeeded) loadNanos = System.nanoTime() - start;
+                else loadFailures.increment();
+            }
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    //drops everything indexed, called with the write lock held
+    private void clear() {
+        terms.clear();
+        Arrays.fill(lengths, 0);
+        documentCount = 0;
+        totalLength = 0;
+    }
+
+    //removes id, indexed with text, called with the write lock held
+    private void unput(int id, String text) {
+        for(String term : termCounts(text).keySet()) {
+            Postings postings = terms.get(term);
+            if(postings != null && postings.remove(id) && postings.size == 0) terms.remove(term);
+        }
+        if(id < lengths.length && lengths[id] != 0) {
+            documentCount--;
+            totalLength -= lengths[id];
+            lengths[id] = 0;
+        }
+    }
+
+    //indexes text under id, called with the write lock held
+    private void put(int id, String text) {
+        Map<String, Integer> counts = termCounts(text);
+        int length = 0;
+        for(Map.Entry<String, Integer> term : counts.entrySet()) {
+            terms.computeIfAbsent(term.getKey(), key -> new Postings()).put(id, term.getValue());
+            length += term.getValue();
+        }
+        if(id >= lengths.length) lengths = Arrays.copyOf(lengths, Math.max(id + 1, lengths.length + (lengths.length >> 1)));
+        if(lengths[id] == 0 && length > 0) documentCount++;
+        else if(length == 0 && lengths[id] != 0) documentCount--;
+        totalLength += length - lengths[id];
+        lengths[id] = length;
+    }
+
+    /**
+     * @return each distinct term in text with how many times it occurs, in order of first occurrence
+     */
+    static Map<String, Integer> termCounts(String text) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        if(text == null) return counts;
+        int start = -1;
+        for(int i = 0; i <= text.length(); ) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            boolean inTerm = Character.isLetterOrDigit(codePoint);
+            if(inTerm && start < 0) start = i;
+            else if(!inTerm && start >= 0) {
+                counts.merge(text.substring(start, i).toLowerCase(Locale.ROOT), 1, Integer::sum);
+                start = -1;
+            }
+            i += i < text.length() ? Character.charCount(codePoint) : 1;
+        }
+        return counts;
+    }
+
+    /**
+     * Thrown by search() until the index has been loaded.
+     */
+    public static class NotLoadedException extends RuntimeException {
+        NotLoadedException() {
+            super("search index is still loading");
+        }
+    }
+
+    /**
+     * A page of search results.
+     */
+    public static class Hits {
+        private final int[] ids;
+        private final int total;
+
+        Hits(int[] ids, int total) {
+            this.ids = ids;
+            this.total = total;
+        }
+
+        /**
+         * @return the ids on this page, best match first
+         */
+        public int[] ids() {
+            return ids;
+        }
+
+        /**
+         * @return how many texts matched in all
+         */
+        public int total() {
+            return total;
+        }
+    }
+
+    /**
+     * The ids containing one term, in id order, with the term's count in each.
+     */
+    private static class Postings {
+        int[] ids = new int[4];
+        int[] counts = new int[4];
+        int size;
+
+        void put(int id, int count) {
+            //new ids are nearly always the highest yet, so check the end before searching
+            int position = size > 0 && ids[size - 1] < id ? -size - 1 : seek(id, size);
+            if(position >= 0) {
+                counts[position] = count;
+                return;
+            }
+            position = -position - 1;
+            if(size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+                counts = Arrays.copyOf(counts, ids.length);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            System.arraycopy(counts, position, counts, position + 1, size - position);
+            ids[position] = id;
+            counts[position] = count;
+            size++;
+        }
+
+        boolean remove(int id) {
+            int position = seek(id, size);
+            if(position < 0) return false;
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            System.arraycopy(counts, position + 1, counts, position, size - position - 1);
+            size--;
+            return true;
+        }
+
+        /**
+         * @return the position of id before end, or -(insertion point) - 1 if it isn't there
+         */
+        int seek(int id, int end) {
+            return Arrays.binarySearch(ids, 0, end, id);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import Model.Account;
+import Model.Message;
+import io.javalin.json.JsonMapper;
+
+/**
+ * The JsonUtil class holds the one ObjectMapper the application uses. ObjectMapper is thread safe and caches the
+ * serializers and deserializers it builds, so sharing one instance means that work is done once per type instead of
+ * once per request.
+ *
+ * Readers and writers for Account and Message are built up front and warmed with a round trip at class load, so the
+ * first request doesn't pay for introspecting the model classes. JAVALIN_MAPPER plugs the same mapper into
+ * Javalin so context.json() uses it as well.
+ */
+public class JsonUtil {
+
+	/**
+	 * The shared mapper. Don't reconfigure it after startup, ObjectMapper is only thread safe once configured.
+	 */
+	public static final ObjectMapper MAPPER = new ObjectMapper();
+
+	public static final ObjectReader ACCOUNT_READER = MAPPER.readerFor(Account.class);
+	public static final ObjectWriter ACCOUNT_WRITER = MAPPER.writerFor(Account.class);
+	public static final ObjectReader MESSAGE_READER = MAPPER.readerFor(Message.class);
+	public static final ObjectWriter MESSAGE_WRITER = MAPPER.writerFor(Message.class);
+	public static final ObjectWriter MESSAGE_LIST_WRITER = MAPPER.writerFor(new TypeReference<List<Message>>(){});
+
+	/**
+	 * Readers for any other type Javalin asks us to parse, built once per type.
+	 */
+	private static final Map<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+
+	/**
+	 * Javalin JsonMapper backed by MAPPER and the prebuilt readers and writers above.
+	 */
+	public static final JsonMapper JAVALIN_MAPPER = new JsonMapper() {
+		@Override
+		public String toJsonString(Object obj, Type type) {
+			try {
+				return writerFor(obj).writeValueAsString(obj);
+			} catch (JsonProcessingException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public InputStream toJsonStream(Object obj, Type type) {
+			try {
+				return new ByteArrayInputStream(writerFor(obj).writeValueAsBytes(obj));
+			} catch (JsonProcessingException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public <T> T fromJsonString(String json, Type targetType) {
+			try {
+				return readerFor(targetType).readValue(json);
+			} catch (JsonProcessingException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public <T> T fromJsonStream(InputStream json, Type targetType) {
+			try {
+				return readerFor(targetType).readValue(json);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	};
+
+	/**
+	 * static initialization block to build every serializer and deserializer the API needs before the first request
+	 */
+	static {
+		try {
+			Account account = ACCOUNT_READER.readValue(ACCOUNT_WRITER.writeValueAsBytes(new Account(1, "warmup", "warmup")));
+			MAPPER.writeValueAsBytes(account);
+			Message message = MESSAGE_READER.readValue(MESSAGE_WRITER.writeValueAsBytes(new Message(1, 1, "warmup", 0)));
+			MESSAGE_LIST_WRITER.writeValueAsBytes(List.of(message));
+			MAPPER.writeValueAsBytes(List.of(message));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return the prebuilt writer for Account and Message, or the shared mapper's writer for anything else
+	 */
+	private static ObjectWriter writerFor(Object obj) {
+		if (obj instanceof Message) return MESSAGE_WRITER;
+		if (obj instanceof Account) return ACCOUNT_WRITER;
+		return MAPPER.writer();
+	}
+
+	private static ObjectReader readerFor(Type type) {
+		if (type == Message.class) return MESSAGE_READER;
+		if (type == Account.class) return ACCOUNT_READER;
+		return readers.computeIfAbsent(type, t -> MAPPER.readerFor(MAPPER.getTypeFactory().constructType(t)));
+	}
+}
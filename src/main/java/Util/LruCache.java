@@ -0,0 +1,104 @@
+package Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded cache that evicts the least recently used entry once it holds more than maxSize entries, and counts
+ * its hits, misses and evictions.
+ *
+ * Every write bumps a generation number. A reader that loads a value from the database should read generation()
+ * before the query and store the result with putIfUnchanged(), so a slow read can never overwrite a newer value that
+ * a writer stored while the query was running.
+ */
+public class LruCache<K, V> {
+    private final int maxSize;
+    private final LinkedHashMap<K, V> entries;
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public LruCache(int maxSize) {
+        this.maxSize = maxSize;
+        //access-order LinkedHashMap keeps the least recently used entry at the head
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if(size() <= LruCache.this.maxSize) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value, or null if the key isn't cached
+     */
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if(value == null) misses++;
+        else hits++;
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        generation++;
+        entries.put(key, value);
+    }
+
+    /**
+     * Stores the value only if nothing has been written to the cache since generation was read.
+     * @return true if the value was stored
+     */
+    public synchronized boolean putIfUnchanged(K key, V value, long generation) {
+        if(this.generation != generation) return false;
+        entries.put(key, value);
+        return true;
+    }
+
+    public synchronized V remove(K key) {
+        generation++;
+        return entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LruCache{" +
+                "size=" + entries.size() +
+                ", maxSize=" + maxSize +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+}
@@ -0,0 +1,218 @@
+package Util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Process-wide metrics, rendered in the Prometheus text exposition format by scrape().
+ *
+ * Timers keep every recorded duration in an HdrHistogram (3 significant digits, so quantiles are within 0.1%) plus a
+ * running sum, and are exposed as summaries with 0.5/0.9/0.99/0.999 quantiles, in seconds, over the life of the
+ * process. Counters are LongAdders, gauges are read when scraped. Recording never locks, so timers can sit on every
+ * request and query.
+ *
+ * Metrics are identified by name and label pairs (name1, value1, name2, value2, ...). Look a metric up once and keep
+ * it where the label values are fixed; lookups by label are a map access.
+ */
+public class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    //sorted so the output is stable between scrapes
+    private static final Map<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+
+    /**
+     * @return the timer with this name and labels, created on first use
+     */
+    public static Timer timer(String name, String help, String... labels) {
+        return (Timer) family(name, help, "summary").metrics.computeIfAbsent(labelString(labels), key -> new Timer());
+    }
+
+    /**
+     * @return the counter with this name and labels, created on first use
+     */
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").metrics.computeIfAbsent(labelString(labels), key -> new Counter());
+    }
+
+    /**
+     * Registers a count kept elsewhere, read at scrape time, replacing any registered with the same name and labels.
+     */
+    public static void counter(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "counter").metrics.put(labelString(labels), value);
+    }
+
+    /**
+     * Registers a value read at scrape time, replacing any gauge registered with the same name and labels.
+     */
+    public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").metrics.put(labelString(labels), value);
+    }
+
+    /**
+     * @return the timer for one DAO method, dao_query_duration_seconds{method=...}
+     */
+    public static Timer daoTimer(String method) {
+        return timer("dao_query_duration_seconds", "Time spent in DAO methods, including waiting for a connection", "method", method);
+    }
+
+    /**
+     * Counts a failed DAO call under dao_errors_total{method=...} and logs it the way the DAOs always have.
+     */
+    public static void daoError(String method, Throwable e) {
+        counter("dao_errors_total", "SQLExceptions caught in DAO methods", "method", method).increment();
+        System.out.println(e.getMessage());
+    }
+
+    /**
+     * @return every metric in the Prometheus text format (version 0.0.4)
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for(Map.Entry<String, Family> entry : FAMILIES.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for(Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                Object value = metric.getValue();
+                if(value instanceof Timer) ((Timer) value).write(out, name, labels);
+                else if(value instanceof Counter) sample(out, name, labels, ((Counter) value).get());
+                else sample(out, name, labels, ((DoubleSupplier) value).getAsDouble());
+            }
+        }
+        return out.toString();
+    }
+
+    private static Family family(String name, String help, String type) {
+        Family family = FAMILIES.computeIfAbsent(name, key -> new Family(help, type));
+        if(!family.type.equals(type)) throw new IllegalArgumentException(name + " is already a " + family.type);
+        return family;
+    }
+
+    //label pairs rendered as they appear inside the braces, e.g. route="GET /messages",status="200"
+    private static String labelString(String... labels) {
+        if(labels.length % 2 != 0) throw new IllegalArgumentException("labels must be name, value pairs");
+        StringBuilder out = new StringBuilder();
+        for(int i = 0; i < labels.length; i += 2) {
+            if(i > 0) out.append(',');
+            out.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for(int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if(c == '\\' || c == '"') out.append('\\').append(c);
+                else if(c == '\n') out.append("\\n");
+                else out.append(c);
+            }
+            out.append('"');
+        }
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if(!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static class Family {
+        final String help;
+        final String type;
+        final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * A distribution of durations.
+     */
+    public static class Timer {
+        private final Histogram histogram = new ConcurrentHistogram(3);
+        private final LongAdder sumNanos = new LongAdder();
+
+        public void record(long nanos) {
+            histogram.recordValue(Math.max(0, nanos));
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * Records the time since startNanos, a System.nanoTime() reading.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * @return a sample that records the time from now until it is closed, for use in try-with-resources
+         */
+        public Sample start() {
+            return new Sample(this, System.nanoTime());
+        }
+
+        public long getCount() {
+            return histogram.getTotalCount();
+        }
+
+        /**
+         * @return the duration in nanoseconds at this percentile (0 to 100)
+         */
+        public long getValueAtPercentile(double percentile) {
+            return histogram.getValueAtPercentile(percentile);
+        }
+
+        private void write(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            for(double quantile : QUANTILES) {
+                sample(out, name, prefix + "quantile=\"" + quantile + "\"", histogram.getValueAtPercentile(quantile * 100) / NANOS_PER_SECOND);
+            }
+            sample(out, name + "_sum", labels, sumNanos.sum() / NANOS_PER_SECOND);
+            sample(out, name + "_count", labels, histogram.getTotalCount());
+        }
+    }
+
+    /**
+     * One timing in progress, recorded into its timer on close().
+     */
+    public static class Sample implements AutoCloseable {
+        private final Timer timer;
+        private final long startNanos;
+
+        private Sample(Timer timer, long startNanos) {
+            this.timer = timer;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void close() {
+            timer.recordSince(startNanos);
+        }
+    }
+
+    /**
+     * A count that only goes up.
+     */
+    public static class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package Util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted PBKDF2-HMAC-SHA256 password hashing. Hashes are stored as
+ *
+ *     pbkdf2$iterations$base64(salt)$base64(hash)
+ *
+ * so the cost can be raised later (-Dpassword.iterations) without breaking existing hashes: anything stored with
+ * fewer iterations, or stored as plaintext by older versions, still verifies and needsRehash() tells the caller to
+ * store a fresh hash. Counts how many hashes it has computed and how long they took.
+ */
+public class PasswordHasher {
+    private static final String PREFIX = "pbkdf2$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+    private final LongAdder hashCount = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+
+    public PasswordHasher() {
+        this(Integer.getInteger("password.iterations", 310000));
+    }
+
+    public PasswordHasher(int iterations) {
+        this.iterations = iterations;
+    }
+
+    /**
+     * @return a new salted hash of password in the stored format
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+        Base64.Encoder base64 = Base64.getEncoder();
+        return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(hash);
+    }
+
+    /**
+     * @param stored a value produced by hash(), or a legacy plaintext password
+     * @return true if password matches what is stored
+     */
+    public boolean verify(String password, String stored) {
+        if(stored == null) return false;
+        if(!stored.startsWith(PREFIX)) {
+            //legacy plaintext row, compare in constant time like a hash would
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        if(parts.length != 4) return false;
+        try {
+            int storedIterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, salt, storedIterations));
+        } catch(IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if stored is plaintext or was hashed with a lower cost than currently configured
+     */
+    public boolean needsRehash(String stored) {
+        if(stored == null || !stored.startsWith(PREFIX)) return true;
+        String[] parts = stored.split("\\$");
+        try {
+            return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+        } catch(NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        long start = System.nanoTime();
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch(GeneralSecurityException e) {
+            //PBKDF2WithHmacSHA256 is required of every Java platform
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+            hashCount.increment();
+            hashNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public long getHashCount() {
+        return hashCount.sum();
+    }
+
+    public long getHashNanos() {
+        return hashNanos.sum();
+    }
+}
@@ -0,0 +1,105 @@
+package Util;
+
+import java.util.Arrays;
+
+/**
+ * The highest ids added to it, up to a fixed capacity, kept in order in a ring buffer. Adding an id once it is full
+ * drops the lowest, so memory per instance is bounded whatever is added.
+ *
+ * Ids are expected to arrive mostly in increasing order, as auto-increment keys do, which makes add() constant time;
+ * one that arrives late is shifted into place. Adding an id already present does nothing.
+ */
+public class RecentIds {
+    //ids[(start + i) % capacity] is the i-th lowest id held
+    private final int[] ids;
+    private int start;
+    private int size;
+    //true once an id has been dropped (or refused) for being too low, so there may be lower ids than the ones held
+    private boolean truncated;
+
+    public RecentIds(int capacity) {
+        this.ids = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * Adds id, dropping the lowest id held if that goes over capacity.
+     */
+    public synchronized void add(int id) {
+        //position id would take among the ids held, counted from the lowest
+        int position = size;
+        while(position > 0 && at(position - 1) >= id) {
+            if(at(position - 1) == id) return;
+            position--;
+        }
+        if(size == ids.length) {
+            truncated = true;
+            //lower than everything held in a full buffer, it would be dropped straight away
+            if(position == 0) return;
+            start = (start + 1) % ids.length;
+            size--;
+            position--;
+        }
+        //shift the higher ids up one to make room, only ever more than none for an id that arrived late
+        for(int i = size; i > position; i--) ids[index(i)] = at(i - 1);
+        ids[index(position)] = id;
+        size++;
+    }
+
+    /**
+     * @return up to limit of the ids held that are lower than before, highest first
+     */
+    public synchronized int[] before(int before, int limit) {
+        //binary search for how many held ids are lower than before
+        int end = 0;
+        int high = size;
+        while(end < high) {
+            int middle = (end + high) >>> 1;
+            if(at(middle) < before) end = middle + 1;
+            else high = middle;
+        }
+        int count = Math.min(limit, end);
+        int[] page = new int[count];
+        for(int i = 0; i < count; i++) page[i] = at(end - 1 - i);
+        return page;
+    }
+
+    /**
+     * Records that there may be lower ids than the ones held, for a buffer filled from a source that was cut off.
+     */
+    public synchronized void markTruncated() {
+        truncated = true;
+    }
+
+    /**
+     * @return true if ids lower than the lowest held may have been dropped, so a page reaching past it is incomplete
+     */
+    public synchronized boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return the lowest id held, or Integer.MAX_VALUE if none are
+     */
+    public synchronized int lowest() {
+        return size == 0 ? Integer.MAX_VALUE : at(0);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private int at(int i) {
+        return ids[index(i)];
+    }
+
+    private int index(int i) {
+        return (start + i) % ids.length;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int[] held = new int[size];
+        for(int i = 0; i < size; i++) held[i] = at(i);
+        return Arrays.toString(held);
+    }
+}
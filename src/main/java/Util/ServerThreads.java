@@ -0,0 +1,50 @@
+package Util;
+
+import io.javalin.config.JavalinConfig;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Chooses which threads run the request handlers. By default they run on Jetty's pool of platform threads, the same
+ * pool Javalin would create (-Dserver.maxThreads, 250 by default), so at most that many requests can be blocked in
+ * JDBC at once and the rest wait in Jetty's queue.
+ *
+ * With -Dserver.virtualThreads=true, on a JDK with virtual threads (21, or 19/20 with --enable-preview), Jetty keeps
+ * its selector and acceptor threads but hands every request to a new virtual thread, so thousands of requests can be
+ * waiting on a slow client or the database without holding a platform thread each. Concurrent database work is still
+ * bounded by the connection pool's semaphore (-Ddb.pool.maxSize): a request waiting for a connection parks its virtual
+ * thread rather than a carrier thread. On a JDK without virtual threads the setting is ignored with a warning.
+ *
+ * The project builds for and is run on JDK 17, which has no virtual threads, so as shipped this always uses platform
+ * threads and the setting does nothing. It only takes effect when the same jar is run on JDK 21 or later.
+ */
+public class ServerThreads {
+    public static final String VIRTUAL_THREADS_PROPERTY = "server.virtualThreads";
+
+    /**
+     * @return true if virtual threads were asked for and this JDK can provide them
+     */
+    public static boolean useVirtualThreads() {
+        return Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY) && VirtualThreads.areSupported();
+    }
+
+    /**
+     * Gives Javalin a Jetty server whose request threads are chosen as described above.
+     */
+    public static void configure(JavalinConfig config) {
+        if(Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY) && !VirtualThreads.areSupported()) {
+            System.out.println(VIRTUAL_THREADS_PROPERTY + " is set but this JDK (" + System.getProperty("java.version")
+                    + ") has no virtual threads, using platform threads");
+        }
+        config.jetty.server(ServerThreads::newServer);
+    }
+
+    private static Server newServer() {
+        //the same sizing Javalin gives its own pool
+        QueuedThreadPool threadPool = new QueuedThreadPool(Integer.getInteger("server.maxThreads", 250), 8, 60000);
+        threadPool.setName("JettyServerThreadPool");
+        threadPool.setUseVirtualThreads(useVirtualThreads());
+        return new Server(threadPool);
+    }
+}
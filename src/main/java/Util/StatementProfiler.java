@@ -0,0 +1,256 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Profiles the statements run on pooled connections. ConnectionPool wraps every PreparedStatement it hands out with
+ * wrap(), and each execution of it records, under its SQL text:
+ *
+ *   db_statement_execute_seconds  time inside execute/executeQuery/executeUpdate/executeBatch
+ *   db_statement_fetch_seconds    time inside ResultSet.next() reading the rows back
+ *   db_statement_rows_total       rows read, or rows changed for updates
+ *   db_statement_batched_total    parameter sets sent through addBatch/executeBatch
+ *
+ * An execution whose execute plus fetch time is over -Ddb.slowQueryMillis (200 by default, 0 logs everything) is
+ * logged with its SQL, timings, row count, batch size and the types of its bind parameters, never their values. With
+ * -Ddb.slowQuery.explain=true the log also carries H2's EXPLAIN ANALYZE of the statement, run again with the same
+ * parameters; this is only done for plain SELECTs, since explaining a DELETE or UPDATE would run it a second time.
+ *
+ * -Ddb.profile=false turns the wrapping off entirely.
+ */
+public class StatementProfiler {
+    private static final boolean ENABLED = !"false".equals(System.getProperty("db.profile"));
+    private static final long SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("db.slowQueryMillis", 200));
+    private static final boolean EXPLAIN = Boolean.getBoolean("db.slowQuery.explain");
+
+    /**
+     * @return statement wrapped so its executions are profiled, or statement itself if profiling is off
+     */
+    public static PreparedStatement wrap(PreparedStatement statement, String sql) {
+        if(!ENABLED) return statement;
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new ProfiledStatement(statement, sql));
+    }
+
+    /**
+     * The executions of one prepared statement. Parameters are kept only so an EXPLAIN ANALYZE can be run with them.
+     */
+    private static class ProfiledStatement implements InvocationHandler {
+        final PreparedStatement statement;
+        final String sql;
+        final Metrics.Timer executeTimer;
+        final Metrics.Timer fetchTimer;
+        final Metrics.Counter rowCounter;
+        final Metrics.Counter batchedCounter;
+        final Map<Integer, Object> parameters = new TreeMap<>();
+        final Map<Integer, String> parameterTypes = new TreeMap<>();
+        //parameter sets added since the last executeBatch
+        int batchSize;
+
+        //the execution in progress, finished when its result set or the statement is closed, or it is re-executed
+        boolean executing;
+        long executeNanos;
+        long fetchNanos;
+        long rows;
+        int batched;
+
+        ProfiledStatement(PreparedStatement statement, String sql) {
+            this.statement = statement;
+            this.sql = sql;
+            this.executeTimer = Metrics.timer("db_statement_execute_seconds", "Time executing each SQL statement", "sql", sql);
+            this.fetchTimer = Metrics.timer("db_statement_fetch_seconds", "Time reading result rows for each SQL statement", "sql", sql);
+            this.rowCounter = Metrics.counter("db_statement_rows_total", "Rows read or changed by each SQL statement", "sql", sql);
+            this.batchedCounter = Metrics.counter("db_statement_batched_total", "Parameter sets executed in batches by each SQL statement", "sql", sql);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch(name) {
+                case "executeQuery":
+                case "executeUpdate":
+                case "execute":
+                case "executeBatch":
+                case "executeLargeUpdate":
+                case "executeLargeBatch":
+                    return execute(proxy, method, args);
+                case "close":
+                    finish();
+                    break;
+                case "addBatch":
+                    batchSize++;
+                    break;
+                case "clearBatch":
+                    batchSize = 0;
+                    break;
+                case "clearParameters":
+                    parameters.clear();
+                    parameterTypes.clear();
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    //setInt(1, x), setString(2, y), ...: remember the type for the log and the value for EXPLAIN
+                    if(name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                        parameters.put((Integer) args[0], args[1]);
+                        parameterTypes.put((Integer) args[0], name.substring(3));
+                    }
+            }
+            return invokeOn(statement, method, args);
+        }
+
+        private Object execute(Object proxy, Method method, Object[] args) throws Throwable {
+            finish();
+            executing = true;
+            if(method.getName().endsWith("Batch")) {
+                batched = batchSize;
+                batchSize = 0;
+            }
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = invokeOn(statement, method, args);
+            } finally {
+                executeNanos = System.nanoTime() - start;
+            }
+
+            if(result instanceof ResultSet) {
+                //rows are counted and timed as they are read, the execution finishes when the result set is closed
+                return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                        new ProfiledResultSet(this, (ResultSet) result, (Statement) proxy));
+            }
+            if(result instanceof Integer || result instanceof Long) rows = ((Number) result).longValue();
+            else if(result instanceof int[]) rows = Arrays.stream((int[]) result).filter(count -> count > 0).sum();
+            else if(result instanceof long[]) rows = Arrays.stream((long[]) result).filter(count -> count > 0).sum();
+            //execute() may have produced a result set the caller will ask for, don't wait for it
+            finish();
+            return result;
+        }
+
+        void finish() {
+            if(!executing) return;
+            executing = false;
+            executeTimer.record(executeNanos);
+            fetchTimer.record(fetchNanos);
+            rowCounter.add(rows);
+            batchedCounter.add(batched);
+            if(executeNanos + fetchNanos >= SLOW_NANOS) logSlow();
+            executeNanos = 0;
+            fetchNanos = 0;
+            rows = 0;
+            batched = 0;
+        }
+
+        private void logSlow() {
+            StringBuilder log = new StringBuilder("Slow query (")
+                    .append(millis(executeNanos + fetchNanos)).append(" ms: execute ").append(millis(executeNanos))
+                    .append(" ms, fetch ").append(millis(fetchNanos)).append(" ms, ").append(rows).append(" rows");
+            if(batched > 0) log.append(", batch of ").append(batched);
+            log.append("): ").append(sql);
+            //parameter values may be passwords or message text, only their types are logged
+            if(!parameterTypes.isEmpty()) {
+                log.append(" | binds: [");
+                String separator = "";
+                for(Map.Entry<Integer, String> parameter : parameterTypes.entrySet()) {
+                    log.append(separator).append(parameter.getKey()).append("=<").append(parameter.getValue()).append('>');
+                    separator = ", ";
+                }
+                log.append(']');
+            }
+            if(EXPLAIN && isPlainSelect()) log.append('\n').append(explainAnalyze());
+            System.out.println(log);
+        }
+
+        private boolean isPlainSelect() {
+            String upper = sql.trim().toUpperCase(Locale.ROOT);
+            return upper.startsWith("SELECT") && !upper.contains("OLD TABLE") && !upper.contains("NEW TABLE")
+                    && !upper.contains("FINAL TABLE");
+        }
+
+        private String explainAnalyze() {
+            try {
+                Connection connection = statement.getConnection();
+                try (PreparedStatement explain = connection.prepareStatement("EXPLAIN ANALYZE " + sql)) {
+                    for(Map.Entry<Integer, Object> parameter : parameters.entrySet()) {
+                        explain.setObject(parameter.getKey(), parameter.getValue());
+                    }
+                    StringBuilder plan = new StringBuilder();
+                    try (ResultSet rs = explain.executeQuery()) {
+                        while(rs.next()) plan.append(rs.getString(1));
+                    }
+                    return plan.toString();
+                }
+            } catch(SQLException e) {
+                return "EXPLAIN ANALYZE failed: " + e.getMessage();
+            }
+        }
+
+        private static String millis(long nanos) {
+            return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+        }
+    }
+
+    /**
+     * A result set whose next() calls are timed and counted against the execution that produced it.
+     */
+    private static class ProfiledResultSet implements InvocationHandler {
+        final ProfiledStatement execution;
+        final ResultSet resultSet;
+        final Statement statementProxy;
+        boolean closed;
+
+        ProfiledResultSet(ProfiledStatement execution, ResultSet resultSet, Statement statementProxy) {
+            this.execution = execution;
+            this.resultSet = resultSet;
+            this.statementProxy = statementProxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch(method.getName()) {
+                case "next":
+                    long start = System.nanoTime();
+                    boolean hasRow = (Boolean) invokeOn(resultSet, method, args);
+                    execution.fetchNanos += System.nanoTime() - start;
+                    if(hasRow) execution.rows++;
+                    return hasRow;
+                case "close":
+                    if(!closed) {
+                        closed = true;
+                        execution.finish();
+                    }
+                    break;
+                case "getStatement":
+                    return statementProxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+            }
+            return invokeOn(resultSet, method, args);
+        }
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch(InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package Util;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Version counters for the message table as a whole and for each account's messages, bumped by every write so reads
+ * can be answered with 304 Not Modified when nothing has changed.
+ *
+ * Read the version before reading the data it describes and bump it after the write has committed. A response can
+ * then be labelled with a version older than its data, which only costs the client one extra full response, but
+ * never with a version newer than its data.
+ *
+ * Versions live in memory and start over with each process, so every ETag carries a random id for this tracker and
+ * tags from before a restart never match. Writes made directly to the database, bypassing the services, are not seen.
+ */
+public class VersionTracker {
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final String instanceId = Long.toHexString(new SecureRandom().nextLong());
+    private final Version initial = new Version(0, System.currentTimeMillis());
+    private final AtomicReference<Version> table = new AtomicReference<>(initial);
+    private final Map<Integer, Version> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * @return the current version of the whole message table
+     */
+    public Version table() {
+        return table.get();
+    }
+
+    /**
+     * @return the current version of the messages posted by account_id
+     */
+    public Version account(int account_id) {
+        return accounts.getOrDefault(account_id, initial);
+    }
+
+    /**
+     * Records a committed change to a message posted by account_id, bumping both its account and the table.
+     */
+    public void changed(int account_id) {
+        long now = System.currentTimeMillis();
+        accounts.compute(account_id, (id, version) -> (version == null ? initial : version).next(now));
+        table.updateAndGet(version -> version.next(now));
+    }
+
+    /**
+     * A version number and when it was reached.
+     */
+    public class Version {
+        private final long number;
+        private final long lastModifiedMillis;
+
+        private Version(long number, long lastModifiedMillis) {
+            this.number = number;
+            this.lastModifiedMillis = lastModifiedMillis;
+        }
+
+        private Version next(long now) {
+            //Last-Modified only has second precision, never let it go backwards if the clock does
+            return new Version(number + 1, Math.max(now, lastModifiedMillis));
+        }
+
+        /**
+         * @return a strong ETag (quotes included) for this version
+         */
+        public String etag() {
+            return "\"" + instanceId + "-" + number + "\"";
+        }
+
+        /**
+         * @return when this version was reached, as an HTTP date
+         */
+        public String lastModified() {
+            return HTTP_DATE.format(Instant.ofEpochMilli(lastModifiedMillis));
+        }
+
+        /**
+         * @return when this version was reached, truncated to whole seconds like an HTTP date
+         */
+        public long lastModifiedSeconds() {
+            return lastModifiedMillis / 1000;
+        }
+    }
+}
@@ -1,3 +1,6 @@
+drop table if exists event_log;
+drop table if exists event_sequence;
+drop table if exists follow;
 drop table if exists message;
 drop table if exists account;
 create table account (
@@ -12,6 +15,36 @@ create table message (
     time_posted_epoch bigint,
     foreign key (posted_by) references  account(account_id)
 );
+-- covers per-account timelines: seek by posted_by, already sorted by time with message_id as the tie-breaker
+create index message_posted_by_time_idx on message (posted_by, time_posted_epoch, message_id);
+-- covers time range reads over every account: seek to since and read on in time order
+create index message_time_idx on message (time_posted_epoch, message_id);
+-- covers one author's newest messages, read newest first when merging them into home timelines
+create index message_posted_by_id_idx on message (posted_by, message_id);
+create table follow (
+    follower_id int,
+    followee_id int,
+    primary key (follower_id, followee_id),
+    foreign key (follower_id) references account(account_id),
+    foreign key (followee_id) references account(account_id)
+);
+-- covers finding an account's followers when fanning out its messages
+create index follow_followee_idx on follow (followee_id, follower_id);
+-- every message and account change in commit order, read on from a sequence_id by consumers tailing it
+create table event_log (
+    sequence_id bigint primary key,
+    entity varchar(16),
+    entity_id int,
+    operation varchar(16),
+    -- unbounded, escaping can make the JSON several times longer than the 255 characters of text it holds
+    payload varchar,
+    recorded_at bigint
+);
+-- the last sequence_id handed out, one row, updated in the transaction appending to event_log
+create table event_sequence (
+    last_sequence_id bigint not null
+);
+insert into event_sequence (last_sequence_id) values (0);
 
 insert into account (username, password) values ('testuser1', 'password');
 insert into message (posted_by, message_text, time_posted_epoch) values (1,'test message 1',1669947792);
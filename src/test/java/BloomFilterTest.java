@@ -0,0 +1,40 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.BloomFilter;
+
+public class BloomFilterTest {
+
+    /**
+     * Adding 10000 strings to a filter sized for 10000 at 1%, then checking them and 10000 strings never added
+     *
+     * Expected Result:
+     *  Every added string might be contained, and no more than 2% of the others are reported as maybe contained
+     */
+    @Test
+    public void noFalseNegativesAndFewFalsePositives() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for(int i = 0; i < 10000; i++) filter.add("user" + i);
+
+        for(int i = 0; i < 10000; i++) Assert.assertTrue(filter.mightContain("user" + i));
+        int falsePositives = 0;
+        for(int i = 0; i < 10000; i++) {
+            if(filter.mightContain("other" + i)) falsePositives++;
+        }
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives <= 200);
+    }
+
+    /**
+     * Adding more strings than the filter was sized for
+     *
+     * Expected Result:
+     *  Every added string might still be contained
+     */
+    @Test
+    public void overfilledFilterHasNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10, 0.01);
+        for(int i = 0; i < 1000; i++) filter.add("user" + i);
+
+        for(int i = 0; i < 1000; i++) Assert.assertTrue(filter.mightContain("user" + i));
+    }
+}
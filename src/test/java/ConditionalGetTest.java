@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConditionalGetTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending GET localhost:8080/messages, then again with If-None-Match set to the ETag of the first response
+     *
+     * Expected Response:
+     *  Status Code: 304
+     *  Response Body: empty, with the same ETag
+     */
+    @Test
+    public void getMessagesNotModified() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/messages", null);
+        String etag = first.headers().firstValue("ETag").orElse(null);
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertNotNull(etag);
+
+        HttpResponse<String> second = get("/messages", etag);
+        Assert.assertEquals(304, second.statusCode());
+        Assert.assertEquals("", second.body());
+        Assert.assertEquals(etag, second.headers().firstValue("ETag").orElse(null));
+    }
+
+    /**
+     * Sending GET localhost:8080/messages/1, posting a message, then GET localhost:8080/messages/1 with If-None-Match
+     * set to the ETag of the first response
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the message again, with a new ETag
+     */
+    @Test
+    public void getMessageByIdModifiedAfterPost() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/messages/1", null);
+        String etag = first.headers().firstValue("ETag").orElse(null);
+        Assert.assertEquals(200, first.statusCode());
+
+        postMessage(1, "new message");
+
+        HttpResponse<String> second = get("/messages/1", etag);
+        Assert.assertEquals(200, second.statusCode());
+        Assert.assertEquals(first.body(), second.body());
+        Assert.assertNotEquals(etag, second.headers().firstValue("ETag").orElse(null));
+    }
+
+    /**
+     * Sending GET localhost:8080/accounts/1/messages, posting a message for account 1, then the same GET with
+     * If-None-Match set to the ETag of the first response
+     *
+     * Expected Response:
+     *  Status Code: 200, since account 1's messages changed
+     */
+    @Test
+    public void getAccountMessagesModifiedAfterPost() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/accounts/1/messages", null);
+        String etag = first.headers().firstValue("ETag").orElse(null);
+        Assert.assertEquals(304, get("/accounts/1/messages", etag).statusCode());
+
+        postMessage(1, "new message");
+
+        HttpResponse<String> second = get("/accounts/1/messages", etag);
+        Assert.assertEquals(200, second.statusCode());
+        Assert.assertTrue(second.body().contains("new message"));
+    }
+
+    private HttpResponse<String> get(String path, String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if(ifNoneMatch != null) request.header("If-None-Match", ifNoneMatch);
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(int posted_by, String message_text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"posted_by\":" + posted_by + ", " +
+                        "\"message_text\": \"" + message_text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+}
@@ -0,0 +1,174 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+import Util.Metrics;
+
+public class ConnectionPoolTest {
+    ConnectionPool pool;
+
+    /**
+     * Before every test, create a pool of at most two connections to a private in-memory database, that gives up
+     * waiting for a connection after 500ms.
+     */
+    @Before
+    public void setUp() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        pool = new ConnectionPool(dataSource, 2, 0, 500, 60000, 0, 8);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Borrowing a third connection while both are out
+     *
+     * Expected Response:
+     *  an SQLTransientConnectionException after the acquire timeout, not a hang, counted as a timeout
+     */
+    @Test(timeout = 5000)
+    public void exhaustedPoolTimesOut() throws SQLException {
+        try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+            Assert.assertEquals(2, pool.getActiveCount());
+            long start = System.nanoTime();
+            try {
+                pool.getConnection().close();
+                Assert.fail("expected the third connection to time out");
+            } catch(SQLTransientConnectionException e) {
+                long waitedMillis = (System.nanoTime() - start) / 1_000_000;
+                Assert.assertTrue("waited " + waitedMillis + "ms", waitedMillis >= 400 && waitedMillis < 3000);
+            }
+            Assert.assertEquals(1, pool.getTimeoutCount());
+        }
+        Assert.assertEquals(0, pool.getActiveCount());
+    }
+
+    /**
+     * Borrowing a third connection while both are out, and one is given back 100ms later
+     *
+     * Expected Response:
+     *  the waiting caller gets the connection given back, no new one is opened
+     */
+    @Test(timeout = 5000)
+    public void waiterGetsReturnedConnection() throws Exception {
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        Thread giveBack = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                first.close();
+            } catch(InterruptedException | SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        giveBack.start();
+
+        try (Connection third = pool.getConnection()) {
+            Assert.assertTrue(third.isValid(1));
+            Assert.assertEquals(2, pool.getCreatedCount());
+        }
+        giveBack.join();
+        second.close();
+        Assert.assertEquals(0, pool.getTimeoutCount());
+    }
+
+    /**
+     * Closing a borrowed connection, then using it and borrowing again
+     *
+     * Expected Response:
+     *  the closed handle refuses to be used, and the next borrow reuses the physical connection
+     */
+    @Test
+    public void closedConnectionIsReturnedToPool() throws SQLException {
+        Connection connection = pool.getConnection();
+        connection.close();
+        try {
+            connection.createStatement();
+            Assert.fail("expected a returned connection to refuse use");
+        } catch(SQLException e) {
+            //expected
+        }
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        try (Connection again = pool.getConnection()) {
+            Assert.assertEquals(1, pool.getCreatedCount());
+            Assert.assertEquals(0, pool.getIdleCount());
+        }
+    }
+
+    /**
+     * Preparing the same SQL again after closing it on the same borrowed connection, while a copy is still open, and
+     * after preparing more distinct SQL than the cache holds
+     *
+     * Expected Response:
+     *  the closed statement is reused with its parameters cleared and its max rows, query timeout and fetch size back
+     *  to a fresh statement's, a copy still open is prepared anew, and the least recently used statement is evicted
+     *  once the cache is full
+     */
+    @Test
+    public void statementsAreReusedFromCache() throws SQLException {
+        double hits = statementCacheMetric("hits");
+        double misses = statementCacheMetric("misses");
+        double evictions = statementCacheMetric("evictions");
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement ps = connection.prepareStatement("SELECT ?")) {
+                ps.setInt(1, 42);
+                ps.setMaxRows(2);
+                ps.setQueryTimeout(5);
+                ps.setFetchSize(1);
+                try (ResultSet rs = ps.executeQuery()) {
+                    Assert.assertTrue(rs.next());
+                    Assert.assertEquals(42, rs.getInt(1));
+                }
+            }
+            try (PreparedStatement ps = connection.prepareStatement("SELECT ?")) {
+                try {
+                    ps.executeQuery().close();
+                    Assert.fail("expected the reused statement's parameters to be cleared");
+                } catch(SQLException e) {
+                    //expected
+                }
+                try (PreparedStatement copy = connection.prepareStatement("SELECT ?")) {
+                    Assert.assertEquals(copy.getMaxRows(), ps.getMaxRows());
+                    Assert.assertEquals(copy.getQueryTimeout(), ps.getQueryTimeout());
+                    Assert.assertEquals(copy.getFetchSize(), ps.getFetchSize());
+                    copy.setInt(1, 7);
+                    try (ResultSet rs = copy.executeQuery()) {
+                        Assert.assertTrue(rs.next());
+                        Assert.assertEquals(7, rs.getInt(1));
+                    }
+                }
+            }
+            Assert.assertEquals(hits + 1, statementCacheMetric("hits"), 0);
+            Assert.assertEquals(misses + 2, statementCacheMetric("misses"), 0);
+
+            //"SELECT ?" and 8 more fill the cache of 8 one past its size
+            for(int i = 0; i < 8; i++) {
+                connection.prepareStatement("SELECT " + i).close();
+            }
+            Assert.assertEquals(evictions + 1, statementCacheMetric("evictions"), 0);
+        }
+    }
+
+    private static double statementCacheMetric(String name) {
+        Matcher value = Pattern.compile("(?m)^db_statement_cache_" + name + "_total (\\S+)$").matcher(Metrics.scrape());
+        Assert.assertTrue(value.find());
+        return Double.parseDouble(value.group(1));
+    }
+}
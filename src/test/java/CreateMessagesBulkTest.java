@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class CreateMessagesBulkTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/bulk with a JSON array of two valid messages, one blank
+     * message and one message from a user that doesn't exist
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: {"inserted":2,"rejected":2}, and both valid messages are persisted
+     */
+    @Test
+    public void bulkCreateJsonArray() throws IOException, InterruptedException {
+        HttpResponse response = postBulk("[" +
+                "{\"posted_by\":1, \"message_text\": \"bulk 1\", \"time_posted_epoch\": 1669947800}," +
+                "{\"posted_by\":1, \"message_text\": \"\", \"time_posted_epoch\": 1669947801}," +
+                "{\"posted_by\":3, \"message_text\": \"nobody\", \"time_posted_epoch\": 1669947802}," +
+                "{\"posted_by\":1, \"message_text\": \"bulk 2\", \"time_posted_epoch\": 1669947803}]", "application/json");
+        int status = response.statusCode();
+
+        Assert.assertEquals(200, status);
+        Map<String, Object> result = objectMapper.readValue(response.body().toString(), new TypeReference<Map<String, Object>>(){});
+        Assert.assertEquals(2, result.get("inserted"));
+        Assert.assertEquals(2, result.get("rejected"));
+
+        List<Message> messages = getAllMessages();
+        Assert.assertEquals(3, messages.size());
+        Assert.assertTrue(messages.contains(new Message(2, 1, "bulk 1", 1669947800)));
+        Assert.assertTrue(messages.contains(new Message(3, 1, "bulk 2", 1669947803)));
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/bulk with newline delimited JSON
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: {"inserted":2,"rejected":0}
+     */
+    @Test
+    public void bulkCreateNdjson() throws IOException, InterruptedException {
+        HttpResponse response = postBulk(
+                "{\"posted_by\":1, \"message_text\": \"line 1\", \"time_posted_epoch\": 1669947800}\n" +
+                "{\"posted_by\":1, \"message_text\": \"line 2\", \"time_posted_epoch\": 1669947801}\n", "application/x-ndjson");
+        int status = response.statusCode();
+
+        Assert.assertEquals(200, status);
+        Map<String, Object> result = objectMapper.readValue(response.body().toString(), new TypeReference<Map<String, Object>>(){});
+        Assert.assertEquals(2, result.get("inserted"));
+        Assert.assertEquals(0, result.get("rejected"));
+        Assert.assertEquals(3, getAllMessages().size());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/bulk where the second element is malformed
+     *
+     * Expected Response:
+     *  Status Code: 400
+     *  Response Body: the first message was still inserted
+     */
+    @Test
+    public void bulkCreateMalformed() throws IOException, InterruptedException {
+        HttpResponse response = postBulk("[" +
+                "{\"posted_by\":1, \"message_text\": \"bulk 1\", \"time_posted_epoch\": 1669947800}," +
+                "{\"posted_by\": \"not a number\"}]", "application/json");
+        int status = response.statusCode();
+
+        Assert.assertEquals(400, status);
+        Map<String, Object> result = objectMapper.readValue(response.body().toString(), new TypeReference<Map<String, Object>>(){});
+        Assert.assertEquals(1, result.get("inserted"));
+        Assert.assertEquals(2, getAllMessages().size());
+    }
+
+    private HttpResponse postBulk(String body, String contentType) throws IOException, InterruptedException {
+        HttpRequest postBulkRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/bulk"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", contentType)
+                .build();
+        return webClient.send(postBulkRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> getAllMessages() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build();
+        HttpResponse response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        return objectMapper.readValue(response.body().toString(), new TypeReference<List<Message>>(){});
+    }
+}
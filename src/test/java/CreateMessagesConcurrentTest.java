@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class CreateMessagesConcurrentTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending 50 concurrent http requests to POST localhost:8080/messages, one of them for an account that doesn't
+     * exist, then GET localhost:8080/messages
+     *
+     * Expected Response:
+     *  Status Code: 200 for the 49 valid messages, each with its own message_id and its own text, 400 for the other
+     *  Response Body: GET returns the seeded message and the 49 new ones, all 49 written by the insert batcher
+     */
+    @Test
+    public void concurrentPostsAreBatchedAndEachGetsItsRow() throws Exception {
+        double batchedBefore = metric("message_insert_batch_rows_total");
+        List<CompletableFuture<HttpResponse<String>>> posts = new ArrayList<>();
+        for(int i = 0; i < 50; i++) {
+            int posted_by = i == 25 ? 99 : 1;
+            HttpRequest post = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + posted_by + ", " +
+                            "\"message_text\": \"concurrent " + i + "\", \"time_posted_epoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            posts.add(webClient.sendAsync(post, HttpResponse.BodyHandlers.ofString()));
+        }
+
+        Set<Integer> message_ids = new HashSet<>();
+        for(int i = 0; i < posts.size(); i++) {
+            HttpResponse<String> response = posts.get(i).get();
+            if(i == 25) {
+                Assert.assertEquals(400, response.statusCode());
+                continue;
+            }
+            Assert.assertEquals(200, response.statusCode());
+            Message created = objectMapper.readValue(response.body(), Message.class);
+            Assert.assertEquals("concurrent " + i, created.getMessage_text());
+            Assert.assertTrue(message_ids.add(created.getMessage_id()));
+        }
+        Assert.assertEquals(49, message_ids.size());
+        Assert.assertEquals(batchedBefore + 49, metric("message_insert_batch_rows_total"), 0);
+
+        HttpRequest getAll = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build();
+        List<Message> messages = objectMapper.readValue(webClient.send(getAll, HttpResponse.BodyHandlers.ofString()).body(),
+                new TypeReference<List<Message>>(){});
+        Assert.assertEquals(50, messages.size());
+    }
+
+    private double metric(String name) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics"))
+                .build();
+        Matcher value = Pattern.compile("(?m)^" + name + " (\\S+)$")
+                .matcher(webClient.send(request, HttpResponse.BodyHandlers.ofString()).body());
+        //the batcher registers its counters when it writes its first batch
+        return value.find() ? Double.parseDouble(value.group(1)) : 0;
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.ChangeEvent;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class EventLogTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. An account is registered, then a message is posted, updated and deleted,
+     * logging four events.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"eventuser\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json"));
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"logged\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json"));
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"logged, edited\"}"))
+                .header("Content-Type", "application/json"));
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .DELETE());
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/events
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the account created, then the message created, updated and deleted, with sequence ids 1 to 4
+     *  and each entity as it was after the change, the account without its password
+     */
+    @Test
+    public void eventsAreLoggedInOrder() throws IOException, InterruptedException {
+        HttpResponse<String> response = getEvents("");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<ChangeEvent> events = events(response);
+        Assert.assertEquals(4, events.size());
+        String[] operations = {"created", "created", "updated", "deleted"};
+        for(int i = 0; i < events.size(); i++) {
+            Assert.assertEquals(i + 1, events.get(i).getSequence_id());
+            Assert.assertEquals(operations[i], events.get(i).getOperation());
+        }
+
+        Assert.assertEquals("account", events.get(0).getEntity());
+        Assert.assertEquals(2, events.get(0).getEntity_id());
+        Assert.assertEquals("{\"account_id\":2,\"username\":\"eventuser\"}", events.get(0).getPayload());
+
+        Assert.assertEquals("message", events.get(2).getEntity());
+        Assert.assertEquals(new Message(2, 1, "logged, edited", 1669947792),
+                objectMapper.readValue(events.get(2).getPayload(), Message.class));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/events?after=1&limit=2&entity=message, then after=3
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the message events 2 and 3, then 4
+     *  X-Next-After header: only on the first, 3
+     */
+    @Test
+    public void eventsReplayFromSequenceId() throws IOException, InterruptedException {
+        HttpResponse<String> firstPage = getEvents("?after=1&limit=2&entity=message");
+        List<ChangeEvent> first = events(firstPage);
+        Assert.assertEquals(2, first.size());
+        Assert.assertEquals(2, first.get(0).getSequence_id());
+        Assert.assertEquals(3, first.get(1).getSequence_id());
+        Assert.assertEquals("3", firstPage.headers().firstValue("X-Next-After").orElse(null));
+
+        HttpResponse<String> secondPage = getEvents("?after=3&limit=2&entity=message");
+        List<ChangeEvent> second = events(secondPage);
+        Assert.assertEquals(1, second.size());
+        Assert.assertEquals("deleted", second.get(0).getOperation());
+        Assert.assertFalse(secondPage.headers().firstValue("X-Next-After").isPresent());
+    }
+
+    /**
+     * Registering an account, posting a message and updating it, each with 255 characters that JSON has to escape (a
+     * quote at each end, control characters between), then sending GET localhost:8080/events?after=4
+     *
+     * Expected Response:
+     *  Status Code: 200 for each write, their events are logged in full rather than failing the writes
+     *  Response Body: the three events, their payloads holding the username and texts unchanged
+     */
+    @Test
+    public void eventsHoldTextsThatNeedEscaping() throws IOException, InterruptedException {
+        String text = "\"" + "\u0001".repeat(253) + "\"";
+        String edited = "\"" + "\u0002".repeat(253) + "\"";
+
+        HttpResponse<String> register = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(
+                        Map.of("username", text, "password", "password"))))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, register.statusCode());
+        HttpResponse<String> post = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(
+                        new Message(1, text, 1669947792))))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, post.statusCode());
+        HttpResponse<String> patch = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/3"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(
+                        Map.of("message_text", edited))))
+                .header("Content-Type", "application/json")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, patch.statusCode());
+
+        List<ChangeEvent> events = events(getEvents("?after=4"));
+        Assert.assertEquals(3, events.size());
+        Assert.assertEquals(text, objectMapper.readValue(events.get(0).getPayload(), Account.class).getUsername());
+        Assert.assertEquals(new Message(3, 1, text, 1669947792),
+                objectMapper.readValue(events.get(1).getPayload(), Message.class));
+        Assert.assertEquals(new Message(3, 1, edited, 1669947792),
+                objectMapper.readValue(events.get(2).getPayload(), Message.class));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/events while the event_log table can't be read
+     *
+     * Expected Response:
+     *  Status Code: 500, not 200 with an empty list that looks like there is nothing new
+     */
+    @Test
+    public void eventsFailedRead() throws IOException, InterruptedException, SQLException {
+        renameTable("event_log", "event_log_moved");
+        try {
+            Assert.assertEquals(500, getEvents("").statusCode());
+        } finally {
+            renameTable("event_log_moved", "event_log");
+        }
+    }
+
+    private HttpResponse<String> getEvents(String query) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/events" + query))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<ChangeEvent> events(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<ChangeEvent>>(){});
+    }
+
+    private void send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static void renameTable(String from, String to) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + from + " RENAME TO " + to);
+        }
+    }
+}
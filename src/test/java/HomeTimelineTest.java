@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class HomeTimelineTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Accounts 2 and 3 are registered, account 1 follows both, and each of the
+     * three posts a message, so messages 2, 3 and 4 are from accounts 2, 3 and 1.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        register("testuser2");
+        register("testuser3");
+        Assert.assertEquals(200, send("PUT", "/accounts/1/following/2").statusCode());
+        Assert.assertEquals(200, send("PUT", "/accounts/1/following/3").statusCode());
+        postMessage(2, "from account 2");
+        postMessage(3, "from account 3");
+        postMessage(1, "from account 1");
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/timeline, then posting as account 2 and reading it again
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the followed accounts' messages newest first, then with the new message on top, pushed into the
+     *  loaded timeline without querying the poster's followers
+     */
+    @Test
+    public void getTimelineNewestFirst() throws IOException, InterruptedException {
+        HttpResponse<String> response = send("GET", "/accounts/1/timeline");
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(3, 3, "from account 3", 1669947792));
+        expectedResult.add(new Message(2, 2, "from account 2", 1669947792));
+        Assert.assertEquals(expectedResult, messages(response));
+
+        //pushed into the timeline loaded by the first read
+        double followerQueries = metric("dao_query_duration_seconds_count\\{method=\"FollowDAO.getFollowerIds\"\\}");
+        double pushes = metric("timeline_fanout_pushes_total");
+        postMessage(2, "later from account 2");
+        expectedResult.add(0, new Message(5, 2, "later from account 2", 1669947792));
+        Assert.assertEquals(expectedResult, messages(send("GET", "/accounts/1/timeline")));
+        Assert.assertEquals(followerQueries, metric("dao_query_duration_seconds_count\\{method=\"FollowDAO.getFollowerIds\"\\}"), 0);
+        Assert.assertEquals(pushes + 1, metric("timeline_fanout_pushes_total"), 0);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/timeline while the follow table can't be read, then
+     * once it can, posting as account 3 and reading it again
+     *
+     * Expected Response:
+     *  Status Code: 500 the first time, then 200
+     *  Response Body: the followed accounts' messages, the timeline was loaded again instead of being kept empty, then
+     *  with the new message pushed into it
+     */
+    @Test
+    public void failedTimelineLoadIsRetried() throws IOException, InterruptedException, SQLException {
+        renameTable("follow", "follow_moved");
+        try {
+            Assert.assertEquals(500, send("GET", "/accounts/1/timeline").statusCode());
+        } finally {
+            renameTable("follow_moved", "follow");
+        }
+
+        Assert.assertEquals(2, messages(send("GET", "/accounts/1/timeline")).size());
+        postMessage(3, "later from account 3");
+        List<Message> actualResult = messages(send("GET", "/accounts/1/timeline"));
+        Assert.assertEquals(3, actualResult.size());
+        Assert.assertEquals("later from account 3", actualResult.get(0).getMessage_text());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/timeline?limit=1, then with the X-Next-Before cursor
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: message 3, then message 2
+     *  X-Next-Before header: 3 on the first page
+     */
+    @Test
+    public void getTimelinePaged() throws IOException, InterruptedException {
+        HttpResponse<String> first = send("GET", "/accounts/1/timeline?limit=1");
+        Assert.assertEquals("3", first.headers().firstValue("X-Next-Before").orElse(null));
+        Assert.assertEquals(3, messages(first).get(0).getMessage_id());
+
+        HttpResponse<String> second = send("GET", "/accounts/1/timeline?limit=1&before=3");
+        Assert.assertEquals(2, messages(second).get(0).getMessage_id());
+    }
+
+    /**
+     * Reading the timeline, then DELETE localhost:8080/accounts/1/following/3 and reading it again
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: only account 2's message once account 3 is unfollowed
+     */
+    @Test
+    public void unfollowRemovesMessages() throws IOException, InterruptedException {
+        Assert.assertEquals(2, messages(send("GET", "/accounts/1/timeline")).size());
+
+        Assert.assertEquals(200, send("DELETE", "/accounts/1/following/3").statusCode());
+
+        List<Message> actualResult = messages(send("GET", "/accounts/1/timeline"));
+        Assert.assertEquals(1, actualResult.size());
+        Assert.assertEquals(2, actualResult.get(0).getPosted_by());
+    }
+
+    /**
+     * Sending http requests to PUT localhost:8080/accounts/1/following/1 and PUT localhost:8080/accounts/1/following/99
+     *
+     * Expected Response:
+     *  Status Code: 400 for following yourself or an account that doesn't exist
+     */
+    @Test
+    public void followInvalidAccount() throws IOException, InterruptedException {
+        Assert.assertEquals(400, send("PUT", "/accounts/1/following/1").statusCode());
+        Assert.assertEquals(400, send("PUT", "/accounts/1/following/99").statusCode());
+    }
+
+    private HttpResponse<String> send(String method, String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> messages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private void register(String username) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username + "\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(int posted_by, String message_text) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":" + posted_by + ", " +
+                        "\"message_text\": \"" + message_text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static void renameTable(String from, String to) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + from + " RENAME TO " + to);
+        }
+    }
+
+    private double metric(String pattern) throws IOException, InterruptedException {
+        Matcher value = Pattern.compile("(?m)^" + pattern + " (\\S+)$").matcher(send("GET", "/metrics").body());
+        Assert.assertTrue(value.find());
+        return Double.parseDouble(value.group(1));
+    }
+}
@@ -0,0 +1,117 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.InvertedIndex;
+
+public class InvertedIndexTest {
+
+    /**
+     * Adding, removing and replacing texts from another thread while the loader is still reading
+     *
+     * Expected Result:
+     *  the changes don't wait for the loader, and once it is done the index holds the loaded texts with the changes
+     *  applied in order
+     */
+    @Test(timeout = 5000)
+    public void changesDuringLoadDoNotWaitAndAreApplied() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch changed = new CountDownLatch(1);
+        InvertedIndex index = new InvertedIndex(sink -> {
+            sink.accept(1, "hello world");
+            sink.accept(2, "goodbye world");
+            loading.countDown();
+            try {
+                Assert.assertTrue(changed.await(2, TimeUnit.SECONDS));
+            } catch(InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            sink.accept(3, "hello again");
+        });
+
+        Thread load = new Thread(index::load);
+        load.start();
+        Assert.assertTrue(loading.await(2, TimeUnit.SECONDS));
+        index.remove(2, "goodbye world");
+        index.remove(1, "hello world");
+        index.add(1, "farewell world");
+        index.add(4, "hello there");
+        changed.countDown();
+        load.join();
+
+        Assert.assertArrayEquals(new int[]{4, 3}, index.search("hello", 0, 10).ids());
+        Assert.assertArrayEquals(new int[]{1}, index.search("world", 0, 10).ids());
+        Assert.assertEquals(0, index.search("goodbye", 0, 10).total());
+        Assert.assertEquals(3, index.getDocumentCount());
+    }
+
+    /**
+     * Loading when the loader fails part way through, then loading again
+     *
+     * Expected Result:
+     *  the first load throws the loader's exception and leaves nothing indexed, the second runs the loader again
+     */
+    @Test
+    public void failedLoadIsRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+        InvertedIndex index = new InvertedIndex(sink -> {
+            sink.accept(1, "hello world");
+            if(attempts.incrementAndGet() == 1) throw new IllegalStateException("connection lost");
+            sink.accept(2, "hello again");
+        });
+
+        try {
+            index.load();
+            Assert.fail("expected the failed load to be thrown");
+        } catch(IllegalStateException e) {
+            Assert.assertEquals("connection lost", e.getMessage());
+        }
+        Assert.assertEquals(0, index.getDocumentCount());
+        Assert.assertEquals(1, index.getLoadFailures());
+        index.add(5, "hello unloaded");
+
+        index.load();
+        Assert.assertEquals(2, index.search("hello", 0, 10).total());
+        Assert.assertEquals(2, attempts.get());
+    }
+
+    /**
+     * Searching before the index is loaded, while the loader is held up, then once it has finished
+     *
+     * Expected Result:
+     *  the searches throw NotLoadedException without waiting and start one background load between them, which
+     *  answers searches once it is done
+     */
+    @Test(timeout = 5000)
+    public void searchBeforeLoadDoesNotWait() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        InvertedIndex index = new InvertedIndex(sink -> {
+            attempts.incrementAndGet();
+            try {
+                Assert.assertTrue(release.await(2, TimeUnit.SECONDS));
+            } catch(InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            sink.accept(1, "hello world");
+        });
+
+        for(int i = 0; i < 3; i++) {
+            try {
+                index.search("hello", 0, 10);
+                Assert.fail("expected the search to be turned away while loading");
+            } catch(InvertedIndex.NotLoadedException e) {
+                //expected
+            }
+        }
+        release.countDown();
+        while(!index.isLoaded()) Thread.sleep(10);
+
+        Assert.assertEquals(1, index.search("hello", 0, 10).total());
+        Assert.assertEquals(1, attempts.get());
+        Assert.assertTrue(index.getLoadNanos() > 0);
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageCacheTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending GET localhost:8080/messages/1 twice, PATCH localhost:8080/messages/1, then GET again
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the second GET is a message cache hit, and the GET after the patch has the new text
+     */
+    @Test
+    public void getAfterPatchSeesNewText() throws IOException, InterruptedException {
+        getMessage(1);
+        double hits = cacheHits();
+        Assert.assertEquals("test message 1", objectMapper.readValue(getMessage(1).body(), Message.class).getMessage_text());
+        Assert.assertEquals(hits + 1, cacheHits(), 0);
+
+        Assert.assertEquals(200, patchMessage(1, "patched").statusCode());
+        Assert.assertEquals(new Message(1, 1, "patched", 1669947792),
+                objectMapper.readValue(getMessage(1).body(), Message.class));
+    }
+
+    /**
+     * Sending GET localhost:8080/messages/1, DELETE localhost:8080/messages/1, then GET again
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: empty for the GET after the delete
+     */
+    @Test
+    public void getAfterDeleteSeesNothing() throws IOException, InterruptedException {
+        getMessage(1);
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .DELETE()
+                .build();
+        webClient.send(delete, HttpResponse.BodyHandlers.ofString());
+
+        HttpResponse<String> response = getMessage(1);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+    /**
+     * Sending many concurrent PATCH localhost:8080/messages/1 interleaved with GETs, then GET localhost:8080/messages/1
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the same text GET localhost:8080/messages reads from the table, whichever patch committed last
+     */
+    @Test
+    public void concurrentPatchesLeaveCacheMatchingTable() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> requests = new ArrayList<>();
+        for(int i = 0; i < 40; i++) {
+            requests.add(webClient.sendAsync(patchRequest(1, "text " + i), HttpResponse.BodyHandlers.ofString()));
+            requests.add(webClient.sendAsync(getRequest(1), HttpResponse.BodyHandlers.ofString()));
+        }
+        for(CompletableFuture<HttpResponse<String>> request : requests) request.get();
+
+        HttpRequest getAll = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build();
+        List<Message> table = objectMapper.readValue(webClient.send(getAll, HttpResponse.BodyHandlers.ofString()).body(),
+                new TypeReference<List<Message>>(){});
+        Message cached = objectMapper.readValue(getMessage(1).body(), Message.class);
+        Assert.assertEquals(table.get(0), cached);
+    }
+
+    private HttpRequest getRequest(int message_id) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + message_id))
+                .build();
+    }
+
+    private HttpRequest patchRequest(int message_id, String message_text) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + message_id))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"" + message_text + "\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+
+    private HttpResponse<String> getMessage(int message_id) throws IOException, InterruptedException {
+        return webClient.send(getRequest(message_id), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> patchMessage(int message_id, String message_text) throws IOException, InterruptedException {
+        return webClient.send(patchRequest(message_id, message_text), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private double cacheHits() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics"))
+                .build();
+        Matcher hits = Pattern.compile("(?m)^message_cache_hits_total (\\S+)$")
+                .matcher(webClient.send(request, HttpResponse.BodyHandlers.ofString()).body());
+        Assert.assertTrue(hits.find());
+        return Double.parseDouble(hits.group(1));
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.MessageStreamService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageStreamTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Opening GET localhost:8080/messages/stream, then posting, updating and deleting a message
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: created, updated and deleted events for message 2, with sequence ids 1, 2 and 3
+     */
+    @Test(timeout = 10000)
+    public void streamSendsWrites() throws IOException, InterruptedException {
+        HttpResponse<Stream<String>> response = openStream(null);
+        Assert.assertEquals(200, response.statusCode());
+        try (Stream<String> lines = response.body()) {
+            Iterator<String> events = lines.iterator();
+
+            postMessage("streamed");
+            Map<String, String> created = nextEvent(events);
+            Assert.assertEquals("created", created.get("event"));
+            Assert.assertEquals("1", created.get("id"));
+            Assert.assertEquals(new Message(2, 1, "streamed", 1669947792), data(created));
+
+            HttpRequest patch = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/2"))
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            webClient.send(patch, HttpResponse.BodyHandlers.ofString());
+            Map<String, String> updated = nextEvent(events);
+            Assert.assertEquals("updated", updated.get("event"));
+            Assert.assertEquals("2", updated.get("id"));
+            Assert.assertEquals("edited", data(updated).getMessage_text());
+
+            HttpRequest delete = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/2"))
+                    .DELETE()
+                    .build();
+            webClient.send(delete, HttpResponse.BodyHandlers.ofString());
+            Map<String, String> deleted = nextEvent(events);
+            Assert.assertEquals("deleted", deleted.get("event"));
+            Assert.assertEquals("3", deleted.get("id"));
+            Assert.assertEquals(2, data(deleted).getMessage_id());
+        }
+    }
+
+    /**
+     * Posting two messages and updating the first, then opening GET localhost:8080/messages/stream with
+     * Last-Event-ID: 1 and posting another
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the events after sequence id 1 replayed from the log (message 3 created, message 2 updated), then
+     *  message 4 created, live
+     */
+    @Test(timeout = 10000)
+    public void streamResumesAfterLastEventId() throws IOException, InterruptedException {
+        postMessage("first");
+        postMessage("second");
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"first, edited\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(patch, HttpResponse.BodyHandlers.ofString());
+
+        HttpResponse<Stream<String>> response = openStream("1");
+        Assert.assertEquals(200, response.statusCode());
+        try (Stream<String> lines = response.body()) {
+            Iterator<String> events = lines.iterator();
+            Map<String, String> created = nextEvent(events);
+            Assert.assertEquals("created", created.get("event"));
+            Assert.assertEquals("2", created.get("id"));
+            Assert.assertEquals("second", data(created).getMessage_text());
+
+            Map<String, String> updated = nextEvent(events);
+            Assert.assertEquals("updated", updated.get("event"));
+            Assert.assertEquals("3", updated.get("id"));
+            Assert.assertEquals("first, edited", data(updated).getMessage_text());
+
+            postMessage("third");
+            Map<String, String> live = nextEvent(events);
+            Assert.assertEquals("created", live.get("event"));
+            Assert.assertEquals("4", live.get("id"));
+            Assert.assertEquals("third", data(live).getMessage_text());
+        }
+    }
+
+    /**
+     * Opening GET localhost:8080/messages/stream as many times as there may be subscribers, then once more, and
+     * posting a message
+     *
+     * Expected Response:
+     *  Status Code: 200 for each of the streams, which don't each keep a thread, 503 with Retry-After for the one
+     *  over the limit
+     *  Response Body: the first stream still gets the created event
+     */
+    @Test(timeout = 60000)
+    public void streamsHoldNoThreadAndExtraIsRefused() throws IOException, InterruptedException {
+        int threadsBefore = Thread.activeCount();
+        HttpResponse<Stream<String>> response = openStream(null);
+        Assert.assertEquals(200, response.statusCode());
+        List<Socket> others = new ArrayList<>();
+        try (Stream<String> lines = response.body()) {
+            for(int i = 1; i < MessageStreamService.MAX_SUBSCRIBERS; i++) {
+                Socket socket = openRawStream();
+                others.add(socket);
+                Assert.assertEquals("HTTP/1.1 200 OK", readLine(socket.getInputStream()));
+            }
+            //a thread per stream would be MAX_SUBSCRIBERS more
+            Assert.assertTrue(Thread.activeCount() - threadsBefore < MessageStreamService.MAX_SUBSCRIBERS / 4);
+
+            try (Socket extra = openRawStream()) {
+                InputStream in = extra.getInputStream();
+                Assert.assertEquals("HTTP/1.1 503 Service Unavailable", readLine(in));
+                boolean retryAfter = false;
+                for(String header = readLine(in); !header.isEmpty(); header = readLine(in)) {
+                    retryAfter |= header.toLowerCase().startsWith("retry-after:");
+                }
+                Assert.assertTrue(retryAfter);
+            }
+
+            postMessage("streamed");
+            Map<String, String> created = nextEvent(lines.iterator());
+            Assert.assertEquals("created", created.get("event"));
+            Assert.assertEquals("streamed", data(created).getMessage_text());
+        } finally {
+            for(Socket socket : others) socket.close();
+        }
+    }
+
+    //opens a stream on a plain socket, the HTTP client would share a handful of connections between them
+    private Socket openRawStream() throws IOException {
+        Socket socket = new Socket("localhost", 8080);
+        socket.getOutputStream().write(("GET /messages/stream HTTP/1.1\r\nHost: localhost\r\n" +
+                "Accept: text/event-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        return socket;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for(int c = in.read(); c != '\n' && c != -1; c = in.read()) {
+            if(c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    private HttpResponse<Stream<String>> openStream(String lastEventId) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/stream"))
+                .header("Accept", "text/event-stream");
+        if(lastEventId != null) request.header("Last-Event-ID", lastEventId);
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofLines());
+    }
+
+    //reads the next event's fields (event, data, id) up to the blank line ending it, skipping heartbeat comments
+    private Map<String, String> nextEvent(Iterator<String> lines) {
+        Map<String, String> event = new HashMap<>();
+        while(true) {
+            String line = lines.next();
+            if(line.isEmpty() && event.containsKey("event")) return event;
+            if(line.isEmpty() || line.startsWith(":")) continue;
+            int colon = line.indexOf(": ");
+            event.put(line.substring(0, colon), line.substring(colon + 2));
+        }
+    }
+
+    private Message data(Map<String, String> event) throws IOException {
+        return objectMapper.readValue(event.get("data"), Message.class);
+    }
+
+    private void postMessage(String message_text) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + message_text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+}
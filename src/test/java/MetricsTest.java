@@ -0,0 +1,107 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MetricsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/1 and then GET localhost:8080/metrics
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: Prometheus text including the route timing, request count, DAO timing and statement timing for the
+     *  first request
+     */
+    @Test
+    public void getMetricsAfterRequest() throws IOException, InterruptedException {
+        HttpRequest getMessage = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build();
+        webClient.send(getMessage, HttpResponse.BodyHandlers.ofString());
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        String body = response.body();
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        Assert.assertTrue(body.contains("# TYPE http_request_duration_seconds summary"));
+        Assert.assertTrue(body.contains("http_request_duration_seconds_count{route=\"GET /messages/{message_id}\"}"));
+        Assert.assertTrue(body.contains("http_requests_total{route=\"GET /messages/{message_id}\",status=\"200\"}"));
+        Assert.assertTrue(body.contains("dao_query_duration_seconds_count{method=\"MessageDAO.getMessageById\"}"));
+        Assert.assertTrue(body.contains("db_statement_execute_seconds_count{sql=\"SELECT * FROM message WHERE message_id=?;\"}"));
+        Assert.assertTrue(body.contains("db_pool_max_connections"));
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/bulk with three messages and then GET
+     * localhost:8080/metrics
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: Prometheus text counting the three messages as parameter sets batched by the message insert
+     */
+    @Test
+    public void getMetricsCountsBatchedParameterSets() throws IOException, InterruptedException {
+        double batchedBefore = insertBatched();
+        HttpRequest postBulk = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/bulk"))
+                .POST(HttpRequest.BodyPublishers.ofString("[" +
+                        "{\"posted_by\":1, \"message_text\": \"one\", \"time_posted_epoch\": 1669947792}," +
+                        "{\"posted_by\":1, \"message_text\": \"two\", \"time_posted_epoch\": 1669947792}," +
+                        "{\"posted_by\":1, \"message_text\": \"three\", \"time_posted_epoch\": 1669947792}]"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(postBulk, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        Assert.assertEquals(batchedBefore + 3, insertBatched(), 0);
+    }
+
+    private double insertBatched() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics"))
+                .build();
+        String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);";
+        Matcher value = Pattern.compile("(?m)^db_statement_batched_total\\{sql=\"" + Pattern.quote(sql) + "\"\\} (\\S+)$")
+                .matcher(webClient.send(request, HttpResponse.BodyHandlers.ofString()).body());
+        return value.find() ? Double.parseDouble(value.group(1)) : 0;
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveAllMessagesCachedTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending GET localhost:8080/messages twice, posting a message, then GET localhost:8080/messages again
+     *
+     * Expected Response:
+     *  Status Code: 200 each time
+     *  Response Body: the same feed for the first two requests, the second written from the feed cache, then the
+     *  feed including the new message after the post, read from the table again
+     */
+    @Test
+    public void getAllMessagesAfterPost() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/messages");
+        double hits = feedCacheHits();
+        HttpResponse<String> second = get("/messages");
+        Assert.assertEquals(200, second.statusCode());
+        Assert.assertEquals(first.body(), second.body());
+        Assert.assertEquals(hits + 1, feedCacheHits(), 0);
+
+        HttpRequest postMessage = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"new message\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessage, HttpResponse.BodyHandlers.ofString());
+
+        HttpResponse<String> third = get("/messages");
+        Assert.assertEquals(200, third.statusCode());
+        Assert.assertTrue(third.body().contains("new message"));
+        Assert.assertEquals(hits + 1, feedCacheHits(), 0);
+    }
+
+    /**
+     * Sending GET localhost:8080/messages?limit=5 and GET localhost:8080/messages while the message table can't be
+     * read, then both again once it can
+     *
+     * Expected Response:
+     *  Status Code: 500 while the table can't be read, then 200
+     *  Response Body: the seeded message once the table is back, the failed reads were not cached as empty feeds
+     */
+    @Test
+    public void failedReadsAreNotCached() throws IOException, InterruptedException, SQLException {
+        renameMessageTable("message", "message_moved");
+        try {
+            Assert.assertEquals(500, get("/messages?limit=5").statusCode());
+            Assert.assertEquals(500, get("/messages").statusCode());
+        } finally {
+            renameMessageTable("message_moved", "message");
+        }
+
+        double hits = feedCacheHits();
+        for(String path : new String[]{"/messages?limit=5", "/messages"}) {
+            HttpResponse<String> response = get(path);
+            Assert.assertEquals(200, response.statusCode());
+            Assert.assertTrue(response.body().contains("test message 1"));
+        }
+        Assert.assertEquals(hits, feedCacheHits(), 0);
+    }
+
+    /**
+     * Sending GET localhost:8080/messages?limit=1 twice, the second time accepting gzip
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Content-Encoding: gzip, with the same JSON and X-Next-After header as the uncompressed response
+     */
+    @Test
+    public void getMessagesPageGzipped() throws IOException, InterruptedException {
+        HttpResponse<String> plain = get("/messages?limit=1");
+        Assert.assertEquals("1", plain.headers().firstValue("X-Next-After").orElse(null));
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?limit=1"))
+                .header("Accept-Encoding", "gzip")
+                .build();
+        HttpResponse<byte[]> gzipped = webClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        Assert.assertEquals(200, gzipped.statusCode());
+        Assert.assertEquals("gzip", gzipped.headers().firstValue("Content-Encoding").orElse(null));
+        Assert.assertEquals("1", gzipped.headers().firstValue("X-Next-After").orElse(null));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.body()))) {
+            Assert.assertEquals(plain.body(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void renameMessageTable(String from, String to) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + from + " RENAME TO " + to);
+        }
+    }
+
+    private double feedCacheHits() throws IOException, InterruptedException {
+        Matcher value = Pattern.compile("(?m)^response_cache_hits_total\\{cache=\"feed\"\\} (\\S+)$")
+                .matcher(get("/metrics").body());
+        Assert.assertTrue(value.find());
+        return Double.parseDouble(value.group(1));
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
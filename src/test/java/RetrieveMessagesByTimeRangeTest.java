@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesByTimeRangeTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. A second account is registered and three more messages are posted, so
+     * there are messages at 1669947700 (account 2), 1669947792 (account 1, twice) and 1669947900 (account 1).
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        HttpRequest register = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"testuser2\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(register, HttpResponse.BodyHandlers.ofString());
+        postMessage(2, "test message 2", 1669947700);
+        postMessage(1, "test message 3", 1669947792);
+        postMessage(1, "test message 4", 1669947900);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?since=1669947700&until=1669947900
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: every account's messages from 1669947700 up to but not including 1669947900, in time order
+     */
+    @Test
+    public void getMessagesInTimeRange() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/messages?since=1669947700&until=1669947900");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(2, 2, "test message 2", 1669947700));
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        expectedResult.add(new Message(3, 1, "test message 3", 1669947792));
+        Assert.assertEquals(expectedResult, messages(response));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?since=1669947750&limit=2, then again with the
+     * X-Next-After cursor of the first page
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: messages 1 and 3, then message 4
+     *  X-Next-After header: 1669947792:3 on the first page only
+     */
+    @Test
+    public void getMessagesSincePaged() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/messages?since=1669947750&limit=2");
+        Assert.assertEquals("1669947792:3", first.headers().firstValue("X-Next-After").orElse(null));
+        Assert.assertEquals(1, messages(first).get(0).getMessage_id());
+        Assert.assertEquals(3, messages(first).get(1).getMessage_id());
+
+        HttpResponse<String> second = get("/messages?since=1669947750&limit=2&after=1669947792:3");
+        Assert.assertFalse(second.headers().firstValue("X-Next-After").isPresent());
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(4, 1, "test message 4", 1669947900));
+        Assert.assertEquals(expectedResult, messages(second));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages?until=1669947800
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: only account 1's messages before 1669947800
+     */
+    @Test
+    public void getAccountMessagesUntil() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/accounts/1/messages?until=1669947800");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        expectedResult.add(new Message(3, 1, "test message 3", 1669947792));
+        Assert.assertEquals(expectedResult, messages(response));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?since=yesterday
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getMessagesInvalidSince() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("/messages?since=yesterday").statusCode());
+    }
+
+    /**
+     * Sending GET requests for time ranges, paged and streamed, for everyone and for account 1, while the message table
+     * can't be read
+     *
+     * Expected Response:
+     *  Status Code: 500 for each, never 200 with an empty page or array that looks like the end of the range
+     */
+    @Test
+    public void getTimeRangeFailedRead() throws IOException, InterruptedException, SQLException {
+        renameMessageTable("message", "message_moved");
+        try {
+            for(String path : new String[]{"/messages?since=0&limit=5", "/accounts/1/messages?since=0&limit=5",
+                    "/messages?since=0", "/accounts/1/messages?since=0"}) {
+                Assert.assertEquals(path, 500, get(path).statusCode());
+            }
+        } finally {
+            renameMessageTable("message_moved", "message");
+        }
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Message> messages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private void postMessage(int posted_by, String message_text, long time_posted_epoch) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":" + posted_by + ", " +
+                        "\"message_text\": \"" + message_text + "\", " +
+                        "\"time_posted_epoch\": " + time_posted_epoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static void renameMessageTable(String from, String to) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + from + " RENAME TO " + to);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SearchMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web. Two more messages are posted before the search index is first used, so it
+     * has to load them from the table.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+        postMessage("hello world");
+        postMessage("Hello hello, big world!");
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=HELLO
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: both hello messages, the one saying it twice first
+     *  X-Total-Count header: 2
+     */
+    @Test
+    public void searchRanksMatches() throws IOException, InterruptedException {
+        HttpResponse<String> response = search("HELLO", "");
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("2", response.headers().firstValue("X-Total-Count").orElse(null));
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(3, 1, "Hello hello, big world!", 1669947792));
+        expectedResult.add(new Message(2, 1, "hello world", 1669947792));
+        Assert.assertEquals(expectedResult, messages(response));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=world big&limit=1, then q=world&limit=1
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: only the message containing both words for the first, one of the two for the second
+     *  X-Next-Offset header: only on the second, 1
+     */
+    @Test
+    public void searchMatchesEveryTermAndPages() throws IOException, InterruptedException {
+        HttpResponse<String> both = search("world big", "&limit=1");
+        Assert.assertEquals(1, messages(both).size());
+        Assert.assertEquals(3, messages(both).get(0).getMessage_id());
+        Assert.assertFalse(both.headers().firstValue("X-Next-Offset").isPresent());
+
+        HttpResponse<String> firstPage = search("world", "&limit=1");
+        Assert.assertEquals(1, messages(firstPage).size());
+        Assert.assertEquals("1", firstPage.headers().firstValue("X-Next-Offset").orElse(null));
+
+        HttpResponse<String> secondPage = search("world", "&limit=1&offset=1");
+        Assert.assertEquals(1, messages(secondPage).size());
+        Assert.assertNotEquals(messages(firstPage).get(0), messages(secondPage).get(0));
+    }
+
+    /**
+     * Searching once to load the index, then posting, updating and deleting messages and searching again
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: each search sees the writes made after the index was loaded
+     */
+    @Test
+    public void searchFollowsWrites() throws IOException, InterruptedException {
+        Assert.assertEquals(0, messages(search("goodbye", "")).size());
+
+        postMessage("goodbye world");
+        Assert.assertEquals(4, messages(search("goodbye", "")).get(0).getMessage_id());
+
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/4"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"farewell world\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patch, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals(0, messages(search("goodbye", "")).size());
+        Assert.assertEquals("farewell world", messages(search("farewell", "")).get(0).getMessage_text());
+
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/4"))
+                .DELETE()
+                .build();
+        webClient.send(delete, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(0, messages(search("farewell", "")).size());
+        Assert.assertEquals("2", search("world", "").headers().firstValue("X-Total-Count").orElse(null));
+    }
+
+    /**
+     * Searching once to load the index, then sending 20 concurrent PATCHes to message 2, each with its own word, and
+     * 20 concurrent PATCHes to message 3 racing a DELETE of it, then searching for every word
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: only the word message 2 ended up with is found, and nothing of the deleted message 3
+     */
+    @Test
+    public void searchMatchesTableAfterConcurrentWrites() throws Exception {
+        Assert.assertEquals(2, messages(search("world", "")).size());
+
+        List<CompletableFuture<HttpResponse<String>>> writes = new ArrayList<>();
+        for(int i = 0; i < 20; i++) {
+            writes.add(webClient.sendAsync(patch(2, "patched" + i), HttpResponse.BodyHandlers.ofString()));
+            writes.add(webClient.sendAsync(patch(3, "racing" + i), HttpResponse.BodyHandlers.ofString()));
+            if(i == 10) {
+                HttpRequest delete = HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:8080/messages/3"))
+                        .DELETE()
+                        .build();
+                writes.add(webClient.sendAsync(delete, HttpResponse.BodyHandlers.ofString()));
+            }
+        }
+        for(CompletableFuture<HttpResponse<String>> write : writes) write.get();
+
+        HttpRequest get = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .build();
+        String final_text = objectMapper.readValue(webClient.send(get, HttpResponse.BodyHandlers.ofString()).body(),
+                Message.class).getMessage_text();
+        for(int i = 0; i < 20; i++) {
+            List<Message> found = messages(search("patched" + i, ""));
+            if(final_text.equals("patched" + i)) Assert.assertEquals(1, found.size());
+            else Assert.assertEquals(0, found.size());
+            Assert.assertEquals(0, messages(search("racing" + i, "")).size());
+        }
+        Assert.assertEquals(0, messages(search("world", "")).size());
+    }
+
+    /**
+     * Starting the app while the message table can't be read, so the index can't load, searching, then searching
+     * again once the table is back
+     *
+     * Expected Response:
+     *  Status Code: 503 with Retry-After while the index isn't loaded, then 200
+     *  Response Body: both hello messages once it is, the failed load is retried instead of leaving the index empty
+     */
+    @Test(timeout = 10000)
+    public void searchRetriesFailedLoad() throws IOException, InterruptedException, SQLException {
+        app.stop();
+        renameMessageTable("message", "message_moved");
+        try {
+            socialMediaController = new SocialMediaController();
+            app = socialMediaController.startAPI();
+            app.start(8080);
+            HttpResponse<String> response = search("hello", "");
+            Assert.assertEquals(503, response.statusCode());
+            Assert.assertEquals("1", response.headers().firstValue("Retry-After").orElse(null));
+            //make sure a load has failed before the table comes back
+            while(loadFailures() == 0) Thread.sleep(50);
+        } finally {
+            renameMessageTable("message_moved", "message");
+        }
+
+        HttpResponse<String> response = search("hello", "");
+        while(response.statusCode() == 503) {
+            Thread.sleep(50);
+            response = search("hello", "");
+        }
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(2, messages(response).size());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search without q
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void searchWithoutQuery() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/search"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(400, response.statusCode());
+    }
+
+    private HttpResponse<String> search(String query, String paging) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/search?q=" + URLEncoder.encode(query, StandardCharsets.UTF_8) + paging))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private double loadFailures() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics"))
+                .build();
+        Matcher value = Pattern.compile("(?m)^search_index_load_failures_total (\\S+)$")
+                .matcher(webClient.send(request, HttpResponse.BodyHandlers.ofString()).body());
+        Assert.assertTrue(value.find());
+        return Double.parseDouble(value.group(1));
+    }
+
+    private static void renameMessageTable(String from, String to) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + from + " RENAME TO " + to);
+        }
+    }
+
+    private HttpRequest patch(int message_id, String message_text) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + message_id))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"" + message_text + "\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+
+    private List<Message> messages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    private void postMessage(String message_text) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"" + message_text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -3,6 +3,7 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -139,4 +140,57 @@ public class UpdateMessageTextTest {
         Assert.assertEquals(400, status);        
         Assert.assertTrue(response.body().toString().isEmpty());
     }
+
+    /**
+     * Sending PATCH localhost:8080/messages/{id} and DELETE localhost:8080/messages/{id} at the same time, for a run
+     * of freshly posted messages
+     *
+     * Expected Response:
+     *  Either the PATCH wins: Status Code 200 for both, and the DELETE returns the updated message
+     *  Or the DELETE wins: the DELETE returns the original message and the PATCH gets Status Code 400
+     *  Never a PATCH that succeeds on a message the DELETE returned unchanged, and the message is gone afterwards
+     */
+    @Test(timeout = 30000)
+    public void updateRacingDeleteIsAtomic() throws IOException, InterruptedException {
+        for(int round = 0; round < 25; round++) {
+            HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{"+
+                            "\"posted_by\":1, " +
+                            "\"message_text\": \"race " + round + "\", " +
+                            "\"time_posted_epoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            Message original = objectMapper.readValue(
+                    webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString()).body(), Message.class);
+            URI uri = URI.create("http://localhost:8080/messages/" + original.getMessage_id());
+
+            HttpRequest patchRequest = HttpRequest.newBuilder()
+                    .uri(uri)
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"patched " + round + "\"}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            HttpRequest deleteRequest = HttpRequest.newBuilder().uri(uri).DELETE().build();
+            CompletableFuture<HttpResponse<String>> patch = webClient.sendAsync(patchRequest, HttpResponse.BodyHandlers.ofString());
+            CompletableFuture<HttpResponse<String>> delete = webClient.sendAsync(deleteRequest, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> patchResponse = patch.join();
+            HttpResponse<String> deleteResponse = delete.join();
+
+            Assert.assertEquals(200, deleteResponse.statusCode());
+            Message deleted = objectMapper.readValue(deleteResponse.body(), Message.class);
+            if(patchResponse.statusCode() == 200) {
+                Message patched = objectMapper.readValue(patchResponse.body(), Message.class);
+                Assert.assertEquals("patched " + round, patched.getMessage_text());
+                Assert.assertEquals(patched, deleted);
+            } else {
+                Assert.assertEquals(400, patchResponse.statusCode());
+                Assert.assertEquals(original, deleted);
+            }
+
+            HttpResponse<String> getResponse = webClient.send(HttpRequest.newBuilder().uri(uri).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(200, getResponse.statusCode());
+            Assert.assertTrue(getResponse.body().isEmpty());
+        }
+    }
 }
@@ -3,6 +3,12 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -119,4 +125,62 @@ public class UserLoginTest {
         Assert.assertEquals("", response.body().toString());
 
     }
+
+
+    /**
+     * Registering a new user through POST localhost:8080/register, then sending an http request to
+     * POST localhost:8080/login with the same credentials twice (the second login is served from the login cache)
+     * 
+     * Expected Response:
+     *  Status Code: 200 both times
+     *  Response Body: JSON representation of user object
+     *  The password is stored as a salted hash, never as plaintext
+     */
+    @Test
+    public void loginAfterRegistration() throws IOException, InterruptedException, SQLException {
+        String credentials = "{" +
+                "\"username\": \"newuser\", " +
+                "\"password\": \"newpassword\" }";
+        HttpRequest registerRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString(credentials))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(registerRequest, HttpResponse.BodyHandlers.ofString());
+
+        Account expectedResult = new Account(2, "newuser", "newpassword");
+        double hitsBefore = loginCacheHits();
+        for(int i = 0; i < 2; i++) {
+            HttpRequest postRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/login"))
+                    .POST(HttpRequest.BodyPublishers.ofString(credentials))
+                    .header("Content-Type", "application/json")
+                    .build();
+            HttpResponse response = webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(200, response.statusCode());
+            Account actualResult = objectMapper.readValue(response.body().toString(), Account.class);
+            Assert.assertEquals(expectedResult, actualResult);
+        }
+        Assert.assertEquals(hitsBefore + 1, loginCacheHits(), 0);
+
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement ps = connection.prepareStatement("SELECT password FROM account WHERE username = ?")) {
+            ps.setString(1, "newuser");
+            try (ResultSet rs = ps.executeQuery()) {
+                Assert.assertTrue(rs.next());
+                Assert.assertNotEquals("newpassword", rs.getString("password"));
+                Assert.assertTrue(rs.getString("password").startsWith("pbkdf2$"));
+            }
+        }
+    }
+
+    private double loginCacheHits() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics"))
+                .build();
+        Matcher value = Pattern.compile("(?m)^login_cache_hits_total (\\S+)$")
+                .matcher(webClient.send(request, HttpResponse.BodyHandlers.ofString()).body());
+        Assert.assertTrue(value.find());
+        return Double.parseDouble(value.group(1));
+    }
 }
@@ -3,6 +3,11 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -141,4 +146,69 @@ public class UserRegistrationTest {
         Assert.assertEquals("", response.body().toString());
 
     }
+
+    /**
+     * Sending an http request to POST localhost:8080/register with the username of the account in the seed data, then
+     * with a new username, then the new username again twice
+     *
+     * Expected Response:
+     *  Status Code: 400, then 200, then 400 both times
+     *  The new username is known to be free without a query: AccountDAO.getValidUsername's query count is unchanged
+     */
+    @Test
+    public void registerUsernameCheckedFromMemory() throws IOException, InterruptedException {
+        Assert.assertEquals(400, register("testuser1").statusCode());
+
+        double queriesBefore = usernameQueries();
+        Assert.assertEquals(200, register("freshuser").statusCode());
+        Assert.assertEquals(queriesBefore, usernameQueries(), 0);
+
+        Assert.assertEquals(400, register("freshuser").statusCode());
+        Assert.assertEquals(400, register("freshuser").statusCode());
+    }
+
+    /**
+     * Sending 20 concurrent http requests to POST localhost:8080/register with the same new username
+     *
+     * Expected Response:
+     *  Status Code: 200 for exactly one of them, 400 for the rest
+     */
+    @Test
+    public void registerSameUsernameConcurrently() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for(int i = 0; i < 20; i++) {
+            responses.add(webClient.sendAsync(registerRequest("raceuser"), HttpResponse.BodyHandlers.ofString()));
+        }
+        int created = 0;
+        for(CompletableFuture<HttpResponse<String>> response : responses) {
+            int status = response.get().statusCode();
+            if(status == 200) created++;
+            else Assert.assertEquals(400, status);
+        }
+        Assert.assertEquals(1, created);
+    }
+
+    private HttpRequest registerRequest(String username) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{" +
+                        "\"username\": \"" + username + "\", " +
+                        "\"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+
+    private HttpResponse<String> register(String username) throws IOException, InterruptedException {
+        return webClient.send(registerRequest(username), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private double usernameQueries() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/metrics"))
+                .build();
+        Matcher value = Pattern.compile("(?m)^dao_query_duration_seconds_count\\{method=\"AccountDAO.getValidUsername\"\\} (\\S+)$")
+                .matcher(webClient.send(request, HttpResponse.BodyHandlers.ofString()).body());
+        Assert.assertTrue(value.find());
+        return Double.parseDouble(value.group(1));
+    }
 }